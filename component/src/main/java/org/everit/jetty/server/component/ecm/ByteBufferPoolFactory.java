@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+
+/**
+ * Factory of the {@link ByteBufferPool} that is used by the connectors of Jetty servers.
+ */
+public interface ByteBufferPoolFactory {
+
+  /**
+   * Returns the {@link ByteBufferPool} that connectors should use. Implementations may return
+   * the same instance for every call, so all connectors that reference the factory share the same
+   * buffers.
+   *
+   * @return The buffer pool.
+   */
+  ByteBufferPool getByteBufferPool();
+}
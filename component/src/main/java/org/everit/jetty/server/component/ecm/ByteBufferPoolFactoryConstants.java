@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+/**
+ * Constants of ByteBufferPoolFactory component.
+ */
+public final class ByteBufferPoolFactoryConstants {
+
+  public static final String ATTR_BUCKET_SIZE_INCREMENT = "bucketSizeIncrement";
+
+  public static final String ATTR_BUFFER_TYPE = "bufferType";
+
+  public static final String ATTR_MAX_BUCKET_SIZE = "maxBucketSize";
+
+  public static final String ATTR_MAX_DIRECT_MEMORY = "maxDirectMemory";
+
+  public static final String ATTR_MAX_HEAP_MEMORY = "maxHeapMemory";
+
+  /**
+   * Value of the bufferType attribute to allocate direct buffers for all acquisitions.
+   */
+  public static final String BUFFER_TYPE_DIRECT = "direct";
+
+  /**
+   * Value of the bufferType attribute to allocate heap buffers for all acquisitions.
+   */
+  public static final String BUFFER_TYPE_HEAP = "heap";
+
+  /**
+   * Value of the bufferType attribute to allocate the type of buffer that Jetty asks for.
+   */
+  public static final String BUFFER_TYPE_REQUESTED = "requested";
+
+  public static final int DEFAULT_BUCKET_SIZE_INCREMENT = 1024;
+
+  public static final String DEFAULT_BUFFER_TYPE = BUFFER_TYPE_REQUESTED;
+
+  public static final int DEFAULT_MAX_BUCKET_SIZE = 64 * 1024;
+
+  public static final long DEFAULT_MAX_DIRECT_MEMORY = -1;
+
+  public static final long DEFAULT_MAX_HEAP_MEMORY = -1;
+
+  public static final String SERVICE_FACTORY_PID =
+      "org.everit.jetty.server.component.ecm.ByteBufferPoolFactory";
+
+  private ByteBufferPoolFactoryConstants() {
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+/**
+ * Statistics of a {@link org.eclipse.jetty.io.ByteBufferPool} that help tuning the bucket and
+ * memory settings of the pool.
+ */
+public interface ByteBufferPoolStatistics {
+
+  /**
+   * Returns the number of released buffers that were dropped as they did not fit into the pool.
+   *
+   * @return The number of discarded buffers.
+   */
+  long getDiscardCount();
+
+  /**
+   * Returns the number of acquisitions that were served by a pooled buffer.
+   *
+   * @return The number of hits.
+   */
+  long getHitCount();
+
+  /**
+   * Returns the number of acquisitions that needed a newly allocated buffer.
+   *
+   * @return The number of misses.
+   */
+  long getMissCount();
+
+  /**
+   * Returns the total capacity of the direct buffers that are currently held by the pool.
+   *
+   * @return The retained direct memory in bytes.
+   */
+  long getRetainedDirectBytes();
+
+  /**
+   * Returns the total capacity of the heap buffers that are currently held by the pool.
+   *
+   * @return The retained heap memory in bytes.
+   */
+  long getRetainedHeapBytes();
+}
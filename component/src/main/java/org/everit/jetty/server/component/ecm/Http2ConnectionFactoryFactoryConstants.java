@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+/**
+ * Constants of the component that creates HTTP/2 over TLS (h2) connection factories. The component
+ * has the same attributes as the component of the HTTP/2 cleartext connection factories, so the
+ * attribute names and their default values are in {@link Http2cConnectionFactoryFactoryConstants}.
+ */
+public final class Http2ConnectionFactoryFactoryConstants {
+
+  public static final String SERVICE_FACTORY_PID =
+      "org.everit.jetty.server.component.ecm.Http2ConnectionFactoryFactory";
+
+  private Http2ConnectionFactoryFactoryConstants() {
+  }
+}
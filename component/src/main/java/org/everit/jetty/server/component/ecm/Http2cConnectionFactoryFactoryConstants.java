@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+/**
+ * Constants of the component that creates HTTP/2 cleartext (h2c) connection factories.
+ */
+public final class Http2cConnectionFactoryFactoryConstants {
+
+  public static final String ATTR_CUSTOMIZERS = "customizers";
+
+  public static final String ATTR_INITIAL_STREAM_SEND_WINDOW = "initialStreamSendWindow";
+
+  public static final String ATTR_INPUT_BUFFER_SIZE = "inputBufferSize";
+
+  public static final String ATTR_MAX_CONCURRENT_STREAMS = "maxConcurrentStreams";
+
+  public static final String ATTR_MAX_DYNAMIC_TABLE_SIZE = "maxDynamicTableSize";
+
+  public static final String ATTR_MAX_HEADER_BLOCK_FRAGMENT = "maxHeaderBlockFragment";
+
+  public static final String ATTR_OUTPUT_BUFFER_SIZE = "outputBufferSize";
+
+  public static final String ATTR_REQUEST_HEADER_SIZE = "requestHeaderSize";
+
+  public static final String ATTR_RESPONSE_HEADER_SIZE = "responseHeaderSize";
+
+  public static final int DEFAULT_INITIAL_STREAM_SEND_WINDOW = 65535;
+
+  public static final int DEFAULT_INPUT_BUFFER_SIZE = 8192;
+
+  public static final int DEFAULT_MAX_CONCURRENT_STREAMS = -1;
+
+  public static final int DEFAULT_MAX_DYNAMIC_TABLE_SIZE = 4096;
+
+  public static final int DEFAULT_MAX_HEADER_BLOCK_FRAGMENT = 0;
+
+  public static final int DEFAULT_OUTPUT_BUFFER_SIZE = 32 * 1024;
+
+  public static final int DEFAULT_REQUEST_HEADER_SIZE = 8 * 1024;
+
+  public static final int DEFAULT_RESPONSE_HEADER_SIZE = 8 * 1024;
+
+  public static final String SERVICE_FACTORY_PID =
+      "org.everit.jetty.server.component.ecm.Http2cConnectionFactoryFactory";
+
+  private Http2cConnectionFactoryFactoryConstants() {
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+/**
+ * Monitoring information about the {@link org.eclipse.jetty.server.HttpConfiguration} instances
+ * that an HttpConnectionFactory Factory hands to its connection factories.
+ */
+public interface HttpConfigurationStatistics {
+
+  /**
+   * Returns the number of configuration generations that were published by dynamic updates. Every
+   * update that changes any of the settings publishes a new, complete configuration instance.
+   *
+   * @return The generation of the current configuration, zero for the initial one.
+   */
+  long getHttpConfigurationGeneration();
+}
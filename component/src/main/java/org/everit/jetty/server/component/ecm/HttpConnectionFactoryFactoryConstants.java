@@ -24,6 +24,8 @@ public final class HttpConnectionFactoryFactoryConstants {
 
   public static final String ATTR_DELAY_DISPATCH_UNTIL_CONTENT = "delayDispatchUntilContent";
 
+  public static final String ATTR_DRAIN_TIMEOUT = "drainTimeout";
+
   public static final String ATTR_HEADER_CACHE_SIZE = "headerCacheSize";
 
   public static final String ATTR_INPUT_BUFFER_SIZE = "inputBufferSize";
@@ -46,6 +48,8 @@ public final class HttpConnectionFactoryFactoryConstants {
 
   public static final String ATTR_SEND_X_POWERED_BY = "sendXPoweredBy";
 
+  public static final long DEFAULT_DRAIN_TIMEOUT = 0;
+
   public static final int DEFAULT_HEADER_CACHE_SIZE = 512;
 
   public static final int DEFAULT_INPUT_BUFFER_SIZE = 8192;
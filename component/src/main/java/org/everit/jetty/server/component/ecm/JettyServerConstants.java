@@ -20,17 +20,53 @@ package org.everit.jetty.server.component.ecm;
  */
 public final class JettyServerConstants {
 
+  public static final String ATTR_CONNECTOR_FAILURE_POLICY = "connectorFailurePolicy";
+
+  public static final String ATTR_CONNECTOR_START_THREADS = "connectorStartThreads";
+
+  public static final String ATTR_CONTEXT_START_THREADS = "contextStartThreads";
+
+  public static final String ATTR_CONTEXT_START_TIMEOUT = "contextStartTimeout";
+
+  public static final String ATTR_LOW_RESOURCE_MONITOR_FACTORY = "lowResourceMonitorFactory";
+
   public static final String ATTR_NETWORK_CONNECTOR_FACTORIES = "networkConnectorFactories";
 
   public static final String ATTR_SERVLET_CONTEXT_HANDLER_FACTORIES =
       "servletContextHandlerFactories";
 
+  public static final String ATTR_STOP_TIMEOUT = "stopTimeout";
+
+  public static final String ATTR_THREAD_POOL_FACTORY = "threadPoolFactory";
+
   public static final String CONNECTOR_REF_CLAUSE_ATTR_HOST = "host";
 
   public static final String CONNECTOR_REF_CLAUSE_ATTR_PORT = "port";
 
   public static final String CONTEXT_CLAUSE_ATTR_CONTEXTPATH = "contextPath";
 
+  public static final String CONNECTOR_FAILURE_POLICY_FAIL = "fail";
+
+  public static final String CONNECTOR_FAILURE_POLICY_SKIP = "skip";
+
+  public static final String DEFAULT_CONNECTOR_FAILURE_POLICY = CONNECTOR_FAILURE_POLICY_FAIL;
+
+  public static final int DEFAULT_CONNECTOR_START_THREADS = 1;
+
+  public static final int DEFAULT_CONTEXT_START_THREADS = 1;
+
+  public static final long DEFAULT_CONTEXT_START_TIMEOUT = 0;
+
+  public static final long DEFAULT_STOP_TIMEOUT = 0;
+
+  /**
+   * Name of the server attribute that holds the number of connector clauses of the server as an
+   * {@link Integer}. It is set before the connectors are created, so connector factories can share
+   * the available processors evenly between the connectors.
+   */
+  public static final String SERVER_ATTRIBUTE_CONNECTOR_COUNT =
+      "org.everit.jetty.server.component.ecm.connectorCount";
+
   public static final String SERVICE_FACTORY_PID =
       "org.everit.jetty.server.component.ecm.JettyServer";
 
@@ -16,12 +16,16 @@
 package org.everit.jetty.server.component.ecm;
 
 /**
- * Wraps exceptions that might occur during stopping Jetty server.
+ * Wraps exceptions that might occur during starting or stopping Jetty server.
  */
 public class JettyServerException extends RuntimeException {
 
   private static final long serialVersionUID = 1418176965953860651L;
 
+  public JettyServerException(final String message, final Throwable cause) {
+    super(message, cause);
+  }
+
   public JettyServerException(final Throwable cause) {
     super(cause);
   }
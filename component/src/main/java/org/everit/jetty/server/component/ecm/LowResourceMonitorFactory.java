@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+import org.eclipse.jetty.server.LowResourceMonitor;
+import org.eclipse.jetty.server.Server;
+
+/**
+ * Factory of {@link LowResourceMonitor} instances that protect Jetty servers against overload.
+ */
+public interface LowResourceMonitorFactory {
+
+  /**
+   * Creates a new {@link LowResourceMonitor} for a server. The lifecycle of the returned monitor
+   * is managed by the server.
+   *
+   * @param server
+   *          The server that is monitored.
+   * @return The new monitor instance.
+   */
+  LowResourceMonitor createLowResourceMonitor(Server server);
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+/**
+ * Constants of LowResourceMonitorFactory component.
+ */
+public final class LowResourceMonitorFactoryConstants {
+
+  public static final String ATTR_LOW_RESOURCES_IDLE_TIMEOUT = "lowResourcesIdleTimeout";
+
+  public static final String ATTR_MAX_CONNECTIONS = "maxConnections";
+
+  public static final String ATTR_MAX_LOW_RESOURCES_TIME = "maxLowResourcesTime";
+
+  public static final String ATTR_MAX_MEMORY = "maxMemory";
+
+  public static final String ATTR_MONITOR_THREADS = "monitorThreads";
+
+  public static final String ATTR_PAUSE_ACCEPTING = "pauseAccepting";
+
+  public static final String ATTR_PERIOD = "period";
+
+  public static final int DEFAULT_LOW_RESOURCES_IDLE_TIMEOUT = 1000;
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 0;
+
+  public static final int DEFAULT_MAX_LOW_RESOURCES_TIME = 0;
+
+  public static final long DEFAULT_MAX_MEMORY = 0;
+
+  public static final boolean DEFAULT_MONITOR_THREADS = true;
+
+  public static final boolean DEFAULT_PAUSE_ACCEPTING = true;
+
+  public static final int DEFAULT_PERIOD = 1000;
+
+  public static final String SERVICE_FACTORY_PID =
+      "org.everit.jetty.server.component.ecm.LowResourceMonitorFactory";
+
+  private LowResourceMonitorFactoryConstants() {
+  }
+}
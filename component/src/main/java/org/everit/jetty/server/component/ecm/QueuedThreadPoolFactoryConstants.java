@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+/**
+ * Constants of QueuedThreadPoolFactory component.
+ */
+public final class QueuedThreadPoolFactoryConstants {
+
+  public static final String ATTR_IDLE_TIMEOUT = "idleTimeout";
+
+  public static final String ATTR_MAX_THREADS = "maxThreads";
+
+  public static final String ATTR_MIN_THREADS = "minThreads";
+
+  public static final String ATTR_NAME = "name";
+
+  public static final String ATTR_QUEUE_CAPACITY = "queueCapacity";
+
+  public static final int DEFAULT_IDLE_TIMEOUT = 60000;
+
+  public static final int DEFAULT_MAX_THREADS = 200;
+
+  public static final int DEFAULT_MIN_THREADS = 8;
+
+  public static final int DEFAULT_QUEUE_CAPACITY = -1;
+
+  public static final String SERVICE_FACTORY_PID =
+      "org.everit.jetty.server.component.ecm.QueuedThreadPoolFactory";
+
+  private QueuedThreadPoolFactoryConstants() {
+  }
+}
@@ -24,9 +24,15 @@ public final class ServerConnectorFactoryConstants {
 
   public static final String ATTR_ACCEPTOR_PRIORITY_DELTA = "acceptorPriorityDelta";
 
+  public static final String ATTR_ACCEPTORS = "acceptors";
+
+  public static final String ATTR_BYTE_BUFFER_POOL_FACTORY = "byteBufferPoolFactory";
+
   public static final String ATTR_CONNECTION_FACTORY_FACTORIES =
       "connectionFactoryFactories";
 
+  public static final String ATTR_DRAIN_TIMEOUT = "drainTimeout";
+
   public static final String ATTR_IDLE_TIMEOUT = "idleTimeout";
 
   public static final String ATTR_INHERIT_CHANNEL = "inheritChannel";
@@ -39,6 +45,10 @@ public final class ServerConnectorFactoryConstants {
 
   public static final String ATTR_SELECTOR_PRIORITY_DELTA = "selectorPriorityDelta";
 
+  public static final String ATTR_SELECTORS = "selectors";
+
+  public static final long DEFAULT_DRAIN_TIMEOUT = 0;
+
   public static final long DEFAULT_IDLE_TIMEOUT = 30000;
 
   public static final boolean DEFAULT_INHERIT_CHANNEL = false;
@@ -49,6 +59,12 @@ public final class ServerConnectorFactoryConstants {
 
   public static final int DEFAULT_SELECTOR_PRIORITY_DELTA = 0;
 
+  /**
+   * Value of the acceptors and selectors attributes to size the thread counts based on the
+   * available processors, shared evenly between the connector clauses of the server.
+   */
+  public static final String THREAD_COUNT_AUTO = "auto";
+
   public static final String SERVICE_FACTORY_PID =
       "org.everit.jetty.server.component.ecm.ServerConnectorFactory";
 
@@ -46,6 +46,8 @@ public final class ServletContextHandlerFactoryConstants {
 
   public static final String ATTR_MIMETYPES = "mimeTypes";
 
+  public static final String ATTR_RECONFIGURATION_DELAY = "reconfigurationDelay";
+
   public static final String ATTR_REQUEST_ATTRIBUTE_LISTENERS = "requestAttributeListeners";
 
   public static final String ATTR_REQUEST_LISTENERS = "requestListeners";
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+/**
+ * Statistics about how the servlet and filter changes of a ServletContextHandler factory were
+ * applied on the created handlers.
+ */
+public interface ServletContextReconfigurationStatistics {
+
+  /**
+   * Returns the number of times the changed servlets and filters were applied on the handlers.
+   *
+   * @return The number of applied reconfigurations.
+   */
+  long getAppliedReconfigurationCount();
+
+  /**
+   * Returns the number of changes that arrived while another change was waiting to be applied and
+   * were therefore applied together with that change.
+   *
+   * @return The number of coalesced changes.
+   */
+  long getCoalescedChangeCount();
+}
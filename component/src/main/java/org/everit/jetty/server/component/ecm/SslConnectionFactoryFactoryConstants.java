@@ -22,6 +22,14 @@ public final class SslConnectionFactoryFactoryConstants {
 
   public static final String ATTR_CERT_ALIAS = "certAlias";
 
+  public static final String ATTR_DEFAULT_CERT_ALIAS = "defaultCertAlias";
+
+  public static final String ATTR_EXCLUDE_CIPHER_SUITES = "excludeCipherSuites";
+
+  public static final String ATTR_EXCLUDE_PROTOCOLS = "excludeProtocols";
+
+  public static final String ATTR_INCLUDE_CIPHER_SUITES = "includeCipherSuites";
+
   public static final String ATTR_INCLUDE_PROTOCOLS = "includeProtocols";
 
   public static final String ATTR_KEY_MANAGER_PASSWORD = "keyManagerPassword";
@@ -30,8 +38,26 @@ public final class SslConnectionFactoryFactoryConstants {
 
   public static final String ATTR_KEYSTORE_PASSWORD = "keyStorePassword";
 
+  public static final String ATTR_PROVIDER = "provider";
+
+  public static final String ATTR_SESSION_CACHING_ENABLED = "sessionCachingEnabled";
+
+  public static final String ATTR_SSL_SESSION_CACHE_SIZE = "sslSessionCacheSize";
+
+  public static final String ATTR_SSL_SESSION_TIMEOUT = "sslSessionTimeout";
+
+  public static final String ATTR_USE_CIPHER_SUITES_ORDER = "useCipherSuitesOrder";
+
   public static final String DEFAULT_KEYSTORE_PASSWORD = "changeit";
 
+  public static final boolean DEFAULT_SESSION_CACHING_ENABLED = true;
+
+  public static final int DEFAULT_SSL_SESSION_CACHE_SIZE = -1;
+
+  public static final int DEFAULT_SSL_SESSION_TIMEOUT = -1;
+
+  public static final boolean DEFAULT_USE_CIPHER_SUITES_ORDER = true;
+
   public static final String SERVICE_FACTORY_PID =
       "org.everit.jetty.server.component.ecm.SslConnectionFactoryFactory";
 
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+/**
+ * Statistics about the reuse of the cached TLS sessions on the connections that were created by an
+ * SslConnectionFactory Factory. A low hit ratio means that most of the clients need a full
+ * handshake.
+ */
+public interface SslSessionStatistics {
+
+  /**
+   * Returns the number of handshakes that resumed a cached TLS session.
+   *
+   * @return The number of hits.
+   */
+  long getSessionResumptionHitCount();
+
+  /**
+   * Returns the number of full handshakes, either because the client did not offer a session or
+   * because the offered session was not found in the cache.
+   *
+   * @return The number of misses.
+   */
+  long getSessionResumptionMissCount();
+}
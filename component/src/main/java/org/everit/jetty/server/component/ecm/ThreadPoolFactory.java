@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm;
+
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Factory of {@link ThreadPool} instances that can be used by Jetty servers.
+ */
+public interface ThreadPoolFactory {
+
+  /**
+   * Creates a new {@link ThreadPool}. The lifecycle of the returned pool is managed by the
+   * server that uses it.
+   *
+   * @return The new thread pool instance.
+   */
+  ThreadPool createThreadPool();
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.everit.jetty.server.component.ecm.AlpnConnectionFactoryFactoryConstants;
+import org.everit.jetty.server.component.ecm.PriorityConstants;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ECMExtenderConstants;
+import org.everit.osgi.jetty.server.ConnectionFactoryFactory;
+import org.osgi.framework.Constants;
+
+import aQute.bnd.annotation.headers.ProvideCapability;
+
+/**
+ * ECM based configurable component that can create {@link ALPNServerConnectionFactory}s. The
+ * factory should be listed right after an SslConnectionFactory Factory on a connector. The
+ * protocol of the connection is selected during the TLS handshake from the protocols that are
+ * listed after the ALPN factory, so the passed next protocol is not used. The ALPN boot library of
+ * Jetty must be on the boot classpath of the JVM.
+ */
+@Component(componentId = AlpnConnectionFactoryFactoryConstants.SERVICE_FACTORY_PID,
+    configurationPolicy = ConfigurationPolicy.FACTORY,
+    label = "Everit Jetty ALPNServerConnectionFactory Factory",
+    description = "Component to create connection factories that negotiate the application "
+        + "protocol (e.g. h2 or http/1.1) during the TLS handshake.")
+@ProvideCapability(ns = ECMExtenderConstants.CAPABILITY_NS_COMPONENT,
+    value = ECMExtenderConstants.CAPABILITY_ATTR_CLASS + "=${@class}")
+@StringAttributes({
+    @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
+        label = "Service description",
+        description = "Optional description for the instantiated ALPNServerConnectionFactory "
+            + "Factory.") })
+@Service
+public class AlpnConnectionFactoryFactoryComponent implements ConnectionFactoryFactory {
+
+  private final WeakHashMap<ALPNServerConnectionFactory, Boolean> activeConnectionFactories =
+      new WeakHashMap<>();
+
+  private String defaultProtocol;
+
+  private String[] protocols;
+
+  private synchronized Set<ALPNServerConnectionFactory> cloneActiveConnectionFactories() {
+    Set<ALPNServerConnectionFactory> result = null;
+    while (result == null) {
+      try {
+        result = new HashSet<>(activeConnectionFactories.keySet());
+      } catch (ConcurrentModificationException e) {
+        // Try again
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized ConnectionFactory createConnectionFactory(final String nextProtocol) {
+    String[] negotiatedProtocols = protocols;
+    if (negotiatedProtocols == null) {
+      negotiatedProtocols = new String[0];
+    }
+
+    ALPNServerConnectionFactory connectionFactory =
+        new ALPNServerConnectionFactory(negotiatedProtocols);
+    connectionFactory.setDefaultProtocol(defaultProtocol);
+
+    activeConnectionFactories.put(connectionFactory, Boolean.TRUE);
+    return connectionFactory;
+  }
+
+  /**
+   * Sets the protocol that is used for the clients that do not support ALPN. The change is applied
+   * on the connections that are opened afterwards.
+   */
+  @StringAttribute(attributeId = AlpnConnectionFactoryFactoryConstants.ATTR_DEFAULT_PROTOCOL,
+      defaultValue = AlpnConnectionFactoryFactoryConstants.DEFAULT_DEFAULT_PROTOCOL,
+      dynamic = true, priority = PriorityConstants.PRIORITY_02, label = "Default protocol",
+      description = "The protocol that is used if the client does not support ALPN or none of "
+          + "the protocols offered by the client are supported. The protocol must be available "
+          + "on the connector.")
+  public synchronized void setDefaultProtocol(final String defaultProtocol) {
+    this.defaultProtocol = defaultProtocol;
+    for (ALPNServerConnectionFactory connectionFactory : cloneActiveConnectionFactories()) {
+      connectionFactory.setDefaultProtocol(defaultProtocol);
+    }
+  }
+
+  @StringAttribute(attributeId = AlpnConnectionFactoryFactoryConstants.ATTR_PROTOCOLS,
+      optional = true, priority = PriorityConstants.PRIORITY_01, label = "Protocols",
+      description = "The protocols that can be negotiated in the order of preference "
+          + "(e.g. h2, http/1.1). If not specified, all protocols are negotiated that are listed "
+          + "after the ALPN connection factory on the connector.")
+  public void setProtocols(final String[] protocols) {
+    this.protocols = protocols;
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.everit.jetty.server.component.ecm.ByteBufferPoolStatistics;
+
+/**
+ * {@link ByteBufferPool} that keeps the released buffers in buckets of the same capacity and
+ * limits the memory that is retained by the pool. Buffers that are bigger than the biggest bucket
+ * or that would exceed the memory limit are left to the garbage collector.
+ */
+public class BoundedByteBufferPool implements ByteBufferPool, ByteBufferPoolStatistics {
+
+  /**
+   * Type of the buffers that are allocated by the pool.
+   */
+  public enum BufferType {
+    DIRECT, HEAP, REQUESTED
+  }
+
+  private final int bucketSizeIncrement;
+
+  private final BufferType bufferType;
+
+  private final Queue<ByteBuffer>[] directBuckets;
+
+  private final LongAdder discardCount = new LongAdder();
+
+  private final Queue<ByteBuffer>[] heapBuckets;
+
+  private final LongAdder hitCount = new LongAdder();
+
+  private final long maxDirectMemory;
+
+  private final long maxHeapMemory;
+
+  private final LongAdder missCount = new LongAdder();
+
+  private final AtomicLong retainedDirectBytes = new AtomicLong();
+
+  private final AtomicLong retainedHeapBytes = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param bucketSizeIncrement
+   *          The difference of the capacity of two neighbouring buckets.
+   * @param maxBucketSize
+   *          The capacity of the biggest bucket. Bigger buffers are not pooled.
+   * @param maxHeapMemory
+   *          The maximum number of bytes that are retained in heap buffers. A negative value
+   *          means unlimited.
+   * @param maxDirectMemory
+   *          The maximum number of bytes that are retained in direct buffers. A negative value
+   *          means unlimited.
+   * @param bufferType
+   *          The type of the allocated buffers.
+   */
+  public BoundedByteBufferPool(final int bucketSizeIncrement, final int maxBucketSize,
+      final long maxHeapMemory, final long maxDirectMemory, final BufferType bufferType) {
+    if (bucketSizeIncrement <= 0) {
+      throw new IllegalArgumentException("Bucket size increment must be positive");
+    }
+    if (maxBucketSize < bucketSizeIncrement) {
+      throw new IllegalArgumentException(
+          "Max bucket size must not be smaller than the bucket size increment");
+    }
+
+    this.bucketSizeIncrement = bucketSizeIncrement;
+    this.maxHeapMemory = maxHeapMemory;
+    this.maxDirectMemory = maxDirectMemory;
+    this.bufferType = bufferType;
+
+    int bucketCount = maxBucketSize / bucketSizeIncrement;
+    this.heapBuckets = createBuckets(bucketCount);
+    this.directBuckets = createBuckets(bucketCount);
+  }
+
+  @Override
+  public ByteBuffer acquire(final int size, final boolean direct) {
+    boolean directBuffer = resolveDirect(direct);
+    int bucketIndex = (size - 1) / bucketSizeIncrement;
+    Queue<ByteBuffer>[] buckets = (directBuffer) ? directBuckets : heapBuckets;
+
+    if (bucketIndex < 0 || bucketIndex >= buckets.length) {
+      missCount.increment();
+      return allocate(size, directBuffer);
+    }
+
+    ByteBuffer buffer = buckets[bucketIndex].poll();
+    if (buffer == null) {
+      missCount.increment();
+      return allocate((bucketIndex + 1) * bucketSizeIncrement, directBuffer);
+    }
+
+    retainedBytes(directBuffer).addAndGet(-buffer.capacity());
+    hitCount.increment();
+    BufferUtil.clear(buffer);
+    return buffer;
+  }
+
+  private ByteBuffer allocate(final int capacity, final boolean direct) {
+    return (direct) ? BufferUtil.allocateDirect(capacity) : BufferUtil.allocate(capacity);
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private Queue<ByteBuffer>[] createBuckets(final int bucketCount) {
+    Queue<ByteBuffer>[] result = new Queue[bucketCount];
+    for (int i = 0; i < bucketCount; i++) {
+      result[i] = new ConcurrentLinkedQueue<>();
+    }
+    return result;
+  }
+
+  @Override
+  public long getDiscardCount() {
+    return discardCount.sum();
+  }
+
+  @Override
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  @Override
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  @Override
+  public long getRetainedDirectBytes() {
+    return retainedDirectBytes.get();
+  }
+
+  @Override
+  public long getRetainedHeapBytes() {
+    return retainedHeapBytes.get();
+  }
+
+  @Override
+  public void release(final ByteBuffer buffer) {
+    if (buffer == null) {
+      return;
+    }
+
+    int capacity = buffer.capacity();
+    boolean direct = buffer.isDirect();
+    Queue<ByteBuffer>[] buckets = (direct) ? directBuckets : heapBuckets;
+    int bucketIndex = capacity / bucketSizeIncrement - 1;
+
+    if ((capacity % bucketSizeIncrement != 0) || bucketIndex < 0
+        || bucketIndex >= buckets.length || !reserve(direct, capacity)) {
+      discardCount.increment();
+      return;
+    }
+
+    buckets[bucketIndex].offer(buffer);
+  }
+
+  private boolean reserve(final boolean direct, final int capacity) {
+    long maxMemory = (direct) ? maxDirectMemory : maxHeapMemory;
+    AtomicLong retainedBytes = retainedBytes(direct);
+    if (maxMemory < 0) {
+      retainedBytes.addAndGet(capacity);
+      return true;
+    }
+
+    long current = retainedBytes.get();
+    while (current + capacity <= maxMemory) {
+      if (retainedBytes.compareAndSet(current, current + capacity)) {
+        return true;
+      }
+      current = retainedBytes.get();
+    }
+    return false;
+  }
+
+  private boolean resolveDirect(final boolean requested) {
+    switch (bufferType) {
+      case DIRECT:
+        return true;
+      case HEAP:
+        return false;
+      default:
+        return requested;
+    }
+  }
+
+  private AtomicLong retainedBytes(final boolean direct) {
+    return (direct) ? retainedDirectBytes : retainedHeapBytes;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s@%x{hits=%d,misses=%d,discards=%d,heap=%d,direct=%d}",
+        getClass().getSimpleName(), hashCode(), getHitCount(), getMissCount(), getDiscardCount(),
+        getRetainedHeapBytes(), getRetainedDirectBytes());
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.everit.jetty.server.component.ecm.ByteBufferPoolFactory;
+import org.everit.jetty.server.component.ecm.ByteBufferPoolFactoryConstants;
+import org.everit.jetty.server.component.ecm.ByteBufferPoolStatistics;
+import org.everit.jetty.server.component.ecm.PriorityConstants;
+import org.everit.jetty.server.component.ecm.internal.BoundedByteBufferPool.BufferType;
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.component.ConfigurationException;
+import org.everit.osgi.ecm.extender.ECMExtenderConstants;
+import org.osgi.framework.Constants;
+
+import aQute.bnd.annotation.headers.ProvideCapability;
+
+/**
+ * ECM based configurable component that provides one bounded {@link ByteBufferPool} for all
+ * connectors that reference it. The statistics of the pool are available via the
+ * {@link ByteBufferPoolStatistics} interface of the same service.
+ */
+@Component(componentId = ByteBufferPoolFactoryConstants.SERVICE_FACTORY_PID,
+    configurationPolicy = ConfigurationPolicy.FACTORY,
+    label = "Everit Jetty ByteBufferPool Factory",
+    description = "Component that provides a shared ByteBufferPool with bounded memory usage for "
+        + "Jetty connectors.")
+@ProvideCapability(ns = ECMExtenderConstants.CAPABILITY_NS_COMPONENT,
+    value = ECMExtenderConstants.CAPABILITY_ATTR_CLASS + "=${@class}")
+@StringAttributes({
+    @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
+        label = "Service description",
+        description = "Optional description for the instantiated ByteBufferPool Factory.") })
+@Service
+public class ByteBufferPoolFactoryComponent
+    implements ByteBufferPoolFactory, ByteBufferPoolStatistics {
+
+  private int bucketSizeIncrement;
+
+  private BoundedByteBufferPool byteBufferPool;
+
+  private BufferType bufferType;
+
+  private int maxBucketSize;
+
+  private long maxDirectMemory;
+
+  private long maxHeapMemory;
+
+  /**
+   * Creates the shared pool of the component.
+   */
+  @Activate
+  public void activate() {
+    try {
+      byteBufferPool = new BoundedByteBufferPool(bucketSizeIncrement, maxBucketSize,
+          maxHeapMemory, maxDirectMemory, bufferType);
+    } catch (IllegalArgumentException e) {
+      throw new ConfigurationException(e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public ByteBufferPool getByteBufferPool() {
+    return byteBufferPool;
+  }
+
+  @Override
+  public long getDiscardCount() {
+    return byteBufferPool.getDiscardCount();
+  }
+
+  @Override
+  public long getHitCount() {
+    return byteBufferPool.getHitCount();
+  }
+
+  @Override
+  public long getMissCount() {
+    return byteBufferPool.getMissCount();
+  }
+
+  @Override
+  public long getRetainedDirectBytes() {
+    return byteBufferPool.getRetainedDirectBytes();
+  }
+
+  @Override
+  public long getRetainedHeapBytes() {
+    return byteBufferPool.getRetainedHeapBytes();
+  }
+
+  @IntegerAttribute(attributeId = ByteBufferPoolFactoryConstants.ATTR_BUCKET_SIZE_INCREMENT,
+      defaultValue = ByteBufferPoolFactoryConstants.DEFAULT_BUCKET_SIZE_INCREMENT,
+      priority = PriorityConstants.PRIORITY_01, label = "Bucket size increment",
+      description = "The capacity difference of two neighbouring buckets in bytes. The capacity "
+          + "of every pooled buffer is a multiple of this value.")
+  public void setBucketSizeIncrement(final int bucketSizeIncrement) {
+    this.bucketSizeIncrement = bucketSizeIncrement;
+  }
+
+  /**
+   * Sets the type of the buffers that are allocated by the pool.
+   */
+  @StringAttribute(attributeId = ByteBufferPoolFactoryConstants.ATTR_BUFFER_TYPE,
+      defaultValue = ByteBufferPoolFactoryConstants.DEFAULT_BUFFER_TYPE,
+      priority = PriorityConstants.PRIORITY_05, label = "Buffer type",
+      description = "The type of the allocated buffers. Possible values are \"requested\" to "
+          + "allocate the type that Jetty asks for, \"heap\" to allocate heap buffers only and "
+          + "\"direct\" to allocate direct buffers only.")
+  public void setBufferType(final String bufferType) {
+    String normalizedBufferType = (bufferType == null) ? "" : bufferType.trim();
+    if (ByteBufferPoolFactoryConstants.BUFFER_TYPE_REQUESTED.equals(normalizedBufferType)) {
+      this.bufferType = BufferType.REQUESTED;
+    } else if (ByteBufferPoolFactoryConstants.BUFFER_TYPE_HEAP.equals(normalizedBufferType)) {
+      this.bufferType = BufferType.HEAP;
+    } else if (ByteBufferPoolFactoryConstants.BUFFER_TYPE_DIRECT.equals(normalizedBufferType)) {
+      this.bufferType = BufferType.DIRECT;
+    } else {
+      throw new ConfigurationException("Invalid value for '"
+          + ByteBufferPoolFactoryConstants.ATTR_BUFFER_TYPE + "': " + bufferType);
+    }
+  }
+
+  @IntegerAttribute(attributeId = ByteBufferPoolFactoryConstants.ATTR_MAX_BUCKET_SIZE,
+      defaultValue = ByteBufferPoolFactoryConstants.DEFAULT_MAX_BUCKET_SIZE,
+      priority = PriorityConstants.PRIORITY_02, label = "Max. bucket size",
+      description = "The capacity of the biggest pooled buffer in bytes. Bigger buffers are "
+          + "allocated on demand and are not pooled.")
+  public void setMaxBucketSize(final int maxBucketSize) {
+    this.maxBucketSize = maxBucketSize;
+  }
+
+  @LongAttribute(attributeId = ByteBufferPoolFactoryConstants.ATTR_MAX_DIRECT_MEMORY,
+      defaultValue = ByteBufferPoolFactoryConstants.DEFAULT_MAX_DIRECT_MEMORY,
+      priority = PriorityConstants.PRIORITY_04, label = "Max. direct memory",
+      description = "The maximum number of bytes that the pool retains in direct buffers. "
+          + "Released buffers that do not fit are left to the garbage collector. A negative value "
+          + "means unlimited.")
+  public void setMaxDirectMemory(final long maxDirectMemory) {
+    this.maxDirectMemory = maxDirectMemory;
+  }
+
+  @LongAttribute(attributeId = ByteBufferPoolFactoryConstants.ATTR_MAX_HEAP_MEMORY,
+      defaultValue = ByteBufferPoolFactoryConstants.DEFAULT_MAX_HEAP_MEMORY,
+      priority = PriorityConstants.PRIORITY_03, label = "Max. heap memory",
+      description = "The maximum number of bytes that the pool retains in heap buffers. Released "
+          + "buffers that do not fit are left to the garbage collector. A negative value means "
+          + "unlimited.")
+  public void setMaxHeapMemory(final long maxHeapMemory) {
+    this.maxHeapMemory = maxHeapMemory;
+  }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.util.Set;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+
+/**
+ * A {@link HTTP2CServerConnectionFactory} that remembers the {@link EndPoint}s of its connections,
+ * including the ones that were upgraded from HTTP/1.1, so they can be closed or drained in case of
+ * a dynamic update. HTTP/2 connections are always treated as busy while they are drained, so they
+ * are closed when the drain timeout elapses.
+ */
+public class CustomHttp2cServerConnectionFactory extends HTTP2CServerConnectionFactory implements
+    ReferencedEndPointsDrainable {
+
+  private final EndPointRegistry referencedEndPoints = new EndPointRegistry();
+
+  public CustomHttp2cServerConnectionFactory(final HttpConfiguration httpConfiguration) {
+    super(httpConfiguration);
+  }
+
+  @Override
+  public void closeReferencedEndpoints() {
+    referencedEndPoints.closeAll();
+  }
+
+  @Override
+  public Set<EndPoint> drainReferencedEndpoints() {
+    return referencedEndPoints.drain();
+  }
+
+  @Override
+  public Connection newConnection(final Connector connector, final EndPoint endPoint) {
+    Connection result = super.newConnection(connector, endPoint);
+    referencedEndPoints.register(result);
+    return result;
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpParser;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnection;
+
+/**
+ * {@link HttpConnection} that can be drained from any thread. The connection tracks whether a
+ * request is in progress with an atomic state that is changed only by compare-and-set operations.
+ * A drain request closes an idle connection immediately, while a busy connection is closed by
+ * its own thread when the current response is completed.
+ */
+public class CustomHttpConnection extends HttpConnection {
+
+  /**
+   * {@link HttpParser.RequestHandler} that marks the connection busy when the request line of a
+   * new request is parsed and delegates everything to the original handler.
+   */
+  private class BusyTrackingRequestHandler implements HttpParser.RequestHandler {
+
+    private final HttpParser.RequestHandler delegate;
+
+    BusyTrackingRequestHandler(final HttpParser.RequestHandler delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void badMessage(final int status, final String reason) {
+      delegate.badMessage(status, reason);
+    }
+
+    @Override
+    public boolean content(final ByteBuffer item) {
+      return delegate.content(item);
+    }
+
+    @Override
+    public void earlyEOF() {
+      delegate.earlyEOF();
+    }
+
+    @Override
+    public int getHeaderCacheSize() {
+      return delegate.getHeaderCacheSize();
+    }
+
+    @Override
+    public boolean headerComplete() {
+      return delegate.headerComplete();
+    }
+
+    @Override
+    public boolean messageComplete() {
+      return delegate.messageComplete();
+    }
+
+    @Override
+    public void parsedHeader(final HttpField field) {
+      delegate.parsedHeader(field);
+    }
+
+    @Override
+    public boolean startRequest(final String method, final String uri,
+        final HttpVersion version) {
+      state.compareAndSet(STATE_IDLE, STATE_BUSY);
+      return delegate.startRequest(method, uri, version);
+    }
+  }
+
+  private static final int STATE_BUSY = 1;
+
+  private static final int STATE_CLOSE_AFTER_RESPONSE = 2;
+
+  private static final int STATE_CLOSED = 3;
+
+  private static final int STATE_IDLE = 0;
+
+  private final AtomicInteger state = new AtomicInteger(STATE_IDLE);
+
+  /**
+   * Constructor.
+   */
+  public CustomHttpConnection(final HttpConfiguration config, final Connector connector,
+      final EndPoint endPoint) {
+    super(config, connector, endPoint);
+  }
+
+  /**
+   * Closes the connection if no request is in progress, otherwise marks the connection to be
+   * closed when the current response is completed. This method can be called from any thread.
+   *
+   * @return <code>true</code> if the connection is closed, <code>false</code> if it will be closed
+   *         after the current response.
+   */
+  public boolean drain() {
+    while (true) {
+      int currentState = state.get();
+      if (currentState == STATE_IDLE) {
+        if (state.compareAndSet(STATE_IDLE, STATE_CLOSED)) {
+          getEndPoint().close();
+          return true;
+        }
+      } else if (currentState == STATE_BUSY) {
+        if (state.compareAndSet(STATE_BUSY, STATE_CLOSE_AFTER_RESPONSE)) {
+          return false;
+        }
+      } else {
+        return currentState == STATE_CLOSED;
+      }
+    }
+  }
+
+  /**
+   * The request handler is created by the constructor of the super class, so the wrapper reaches
+   * the state of the connection only when the first request is parsed.
+   */
+  @Override
+  protected HttpParser.RequestHandler newRequestHandler() {
+    return new BusyTrackingRequestHandler(super.newRequestHandler());
+  }
+
+  /**
+   * Marks the connection idle before the completion is processed, so a pipelined request that is
+   * dispatched by the completion marks the connection busy again. A connection that was drained
+   * during the request is not persisted and it is closed after the response.
+   */
+  @Override
+  public void onCompleted() {
+    while (true) {
+      int currentState = state.get();
+      if (currentState == STATE_CLOSE_AFTER_RESPONSE) {
+        if (state.compareAndSet(STATE_CLOSE_AFTER_RESPONSE, STATE_CLOSED)) {
+          getGenerator().setPersistent(false);
+          super.onCompleted();
+          getEndPoint().close();
+          return;
+        }
+      } else if ((currentState != STATE_BUSY)
+          || state.compareAndSet(STATE_BUSY, STATE_IDLE)) {
+        super.onCompleted();
+        return;
+      }
+    }
+  }
+}
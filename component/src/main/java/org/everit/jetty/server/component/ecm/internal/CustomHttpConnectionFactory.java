@@ -15,42 +15,30 @@
  */
 package org.everit.jetty.server.component.ecm.internal;
 
-import java.util.ConcurrentModificationException;
-import java.util.HashSet;
 import java.util.Set;
-import java.util.WeakHashMap;
 
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConnectionFactory;
-import org.everit.osgi.jetty.server.ReferencedEndPointsCloseable;
 
 /**
  * A {@link HttpConnectionFactory} that provides connections in the way that remembers all
- * referenced {@link EndPoint}s so they can be closed in case of a dynamic update.
+ * referenced {@link EndPoint}s so they can be closed or drained in case of a dynamic update. The
+ * {@link HttpConfiguration} of the factory can be replaced, so a dynamic update never changes a
+ * configuration that is used by a running connection.
  */
 public class CustomHttpConnectionFactory extends HttpConnectionFactory implements
-    ReferencedEndPointsCloseable {
+    ReferencedEndPointsDrainable {
 
-  private final WeakHashMap<EndPoint, Boolean> referencedEndpoints =
-      new WeakHashMap<EndPoint, Boolean>();
+  private volatile HttpConfiguration httpConfiguration;
+
+  private final EndPointRegistry referencedEndPoints = new EndPointRegistry();
 
   public CustomHttpConnectionFactory(final HttpConfiguration config) {
     super(config);
-  }
-
-  private synchronized Set<EndPoint> cloneReferencedEndPoints() {
-    Set<EndPoint> result = null;
-    while (result == null) {
-      try {
-        result = new HashSet<EndPoint>(referencedEndpoints.keySet());
-      } catch (ConcurrentModificationException e) {
-        // TODO probably some warn logging would be nice
-      }
-    }
-    return result;
+    httpConfiguration = config;
   }
 
   /**
@@ -58,17 +46,39 @@ public class CustomHttpConnectionFactory extends HttpConnectionFactory implement
    */
   @Override
   public void closeReferencedEndpoints() {
-    Set<EndPoint> endPoints = cloneReferencedEndPoints();
-    for (EndPoint endPoint : endPoints) {
-      endPoint.close();
-    }
+    referencedEndPoints.closeAll();
+  }
+
+  @Override
+  public Set<EndPoint> drainReferencedEndpoints() {
+    return referencedEndPoints.drain();
+  }
+
+  /**
+   * Returns the configuration that is used by the connections that are created from now on.
+   */
+  @Override
+  public HttpConfiguration getHttpConfiguration() {
+    return httpConfiguration;
   }
 
   @Override
-  public synchronized Connection newConnection(final Connector connector, final EndPoint endPoint) {
-    Connection result = super.newConnection(connector, endPoint);
-    referencedEndpoints.put(result.getEndPoint(), Boolean.TRUE);
+  public Connection newConnection(final Connector connector, final EndPoint endPoint) {
+    Connection result = configure(new CustomHttpConnection(httpConfiguration, connector, endPoint),
+        connector, endPoint);
+    referencedEndPoints.register(result);
     return result;
   }
 
+  /**
+   * Replaces the configuration of the connections that are created from now on. Already created
+   * connections keep the configuration that they were created with.
+   *
+   * @param httpConfiguration
+   *          The new, completely set up configuration that must not be modified afterwards.
+   */
+  public void updateHttpConfiguration(final HttpConfiguration httpConfiguration) {
+    this.httpConfiguration = httpConfiguration;
+  }
+
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.LowResourceMonitor;
+import org.eclipse.jetty.server.Server;
+
+/**
+ * {@link LowResourceMonitor} that does not only lower the idle timeout of the connections in
+ * case the server is low on resources, but also pauses the acceptor threads of the
+ * {@link CustomServerConnector}s until the load drops.
+ */
+public class CustomLowResourceMonitor extends LowResourceMonitor {
+
+  private volatile boolean pauseAccepting;
+
+  public CustomLowResourceMonitor(final Server server) {
+    super(server);
+  }
+
+  @Override
+  protected void clearLowResources() {
+    super.clearLowResources();
+    setAcceptPausedOnConnectors(false);
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    setAcceptPausedOnConnectors(false);
+    super.doStop();
+  }
+
+  public boolean isPauseAccepting() {
+    return pauseAccepting;
+  }
+
+  private void setAcceptPausedOnConnectors(final boolean acceptPaused) {
+    for (Connector connector : getMonitoredOrServerConnectors()) {
+      if (connector instanceof CustomServerConnector) {
+        ((CustomServerConnector) connector).setAcceptPaused(acceptPaused);
+      }
+    }
+  }
+
+  @Override
+  protected void setLowResources() {
+    super.setLowResources();
+    if (pauseAccepting) {
+      setAcceptPausedOnConnectors(true);
+    }
+  }
+
+  /**
+   * Sets whether the acceptor threads should be paused while the server is low on resources. In
+   * case accepting is switched off while the server is low on resources, the connectors are
+   * resumed immediately.
+   */
+  public void setPauseAccepting(final boolean pauseAccepting) {
+    this.pauseAccepting = pauseAccepting;
+    if (!pauseAccepting && isRunning()) {
+      setAcceptPausedOnConnectors(false);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * {@link ServerConnector} whose acceptor threads can be paused. While accepting is paused, new
+ * connections wait in the accept queue of the operating system and the connections that are
+ * already established are served as usual.
+ */
+public class CustomServerConnector extends ServerConnector {
+
+  private boolean acceptPaused = false;
+
+  private final Object acceptPauseLock = new Object();
+
+  public CustomServerConnector(final Server server, final Executor executor,
+      final Scheduler scheduler, final ByteBufferPool bufferPool, final int acceptors,
+      final int selectors, final ConnectionFactory... factories) {
+    super(server, executor, scheduler, bufferPool, acceptors, selectors, factories);
+  }
+
+  @Override
+  public void accept(final int acceptorID) throws IOException {
+    synchronized (acceptPauseLock) {
+      while (acceptPaused && isAccepting()) {
+        try {
+          acceptPauseLock.wait();
+        } catch (InterruptedException e) {
+          // Acceptor threads are interrupted when the connector is stopped. Any other interrupt is
+          // dropped, as accepting on an interrupted thread would close the server socket channel.
+          if (!isAccepting()) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      }
+    }
+    super.accept(acceptorID);
+  }
+
+  public boolean isAcceptPaused() {
+    synchronized (acceptPauseLock) {
+      return acceptPaused;
+    }
+  }
+
+  /**
+   * Pauses or resumes accepting new connections.
+   *
+   * @param acceptPaused
+   *          Whether the acceptor threads should wait instead of accepting new connections.
+   */
+  public void setAcceptPaused(final boolean acceptPaused) {
+    synchronized (acceptPauseLock) {
+      this.acceptPaused = acceptPaused;
+      acceptPauseLock.notifyAll();
+    }
+  }
+
+}
@@ -16,41 +16,628 @@
 package org.everit.jetty.server.component.ecm.internal;
 
 import java.io.IOException;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.UnavailableException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpHeaderValue;
+import org.eclipse.jetty.http.PathMap;
+import org.eclipse.jetty.http.PathMap.MappedEntry;
+import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.io.RuntimeIOException;
+import org.eclipse.jetty.server.QuietServletException;
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.ServletRequestHttpWrapper;
+import org.eclipse.jetty.server.ServletResponseHttpWrapper;
+import org.eclipse.jetty.server.UserIdentity;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.FilterMapping;
+import org.eclipse.jetty.servlet.Holder;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.servlet.ServletMapping;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.everit.jetty.server.component.ecm.JettyServerException;
 
 /**
  * Customized implementation of {@link ServletHandler} to support dynamic updates of servlets and
- * filters.
+ * filters. The servlets, filters and their mappings are published as an immutable snapshot via a
+ * volatile reference, so requests are routed without any locking while an update is in progress.
  */
 public class CustomServletHandler extends ServletHandler {
 
+  /**
+   * Immutable view of the filters and their mappings.
+   */
+  private static final class FilterSnapshot {
+
+    public final Map<String, FilterHolder> filterNameMap;
+
+    public final Map<String, List<FilterMapping>> filterNameMappings;
+
+    public final List<FilterMapping> filterPathMappings;
+
+    FilterSnapshot(final FilterHolder[] filterHolders, final FilterMapping[] filterMappings) {
+      Map<String, FilterHolder> filterNameMap = new HashMap<>();
+      if (filterHolders != null) {
+        for (FilterHolder filterHolder : filterHolders) {
+          filterNameMap.put(filterHolder.getName(), filterHolder);
+        }
+      }
+      this.filterNameMap = filterNameMap;
+
+      List<FilterMapping> filterPathMappings = new ArrayList<>();
+      Map<String, List<FilterMapping>> filterNameMappings = new HashMap<>();
+      if (filterMappings != null) {
+        for (FilterMapping filterMapping : filterMappings) {
+          if (filterNameMap.containsKey(filterMapping.getFilterName())) {
+            indexFilterMapping(filterMapping, filterPathMappings, filterNameMappings);
+          } else {
+            LOG.warn("No filter named {} for the filter mapping {}", filterMapping.getFilterName(),
+                filterMapping);
+          }
+        }
+      }
+      this.filterPathMappings = filterPathMappings;
+      this.filterNameMappings = filterNameMappings;
+    }
+
+    private static void indexFilterMapping(final FilterMapping filterMapping,
+        final List<FilterMapping> filterPathMappings,
+        final Map<String, List<FilterMapping>> filterNameMappings) {
+
+      if (filterMapping.getPathSpecs() != null) {
+        filterPathMappings.add(filterMapping);
+      }
+      String[] servletNames = filterMapping.getServletNames();
+      if (servletNames == null) {
+        return;
+      }
+      for (String servletName : servletNames) {
+        if (servletName != null) {
+          filterNameMappings.computeIfAbsent(servletName, (key) -> new ArrayList<>())
+              .add(filterMapping);
+        }
+      }
+    }
+
+    public boolean hasFilterMappings() {
+      return !filterPathMappings.isEmpty() || !filterNameMappings.isEmpty();
+    }
+
+    private boolean appliesTo(final FilterMapping filterMapping,
+        final DispatcherType dispatcherType) {
+      if (filterMapping.isDefaultDispatches()) {
+        return (dispatcherType == DispatcherType.REQUEST)
+            || ((dispatcherType == DispatcherType.ASYNC)
+                && filterNameMap.get(filterMapping.getFilterName()).isAsyncSupported());
+      }
+      return filterMapping.appliesTo(dispatcherType);
+    }
+
+    private boolean matchesPath(final FilterMapping filterMapping, final String pathInContext) {
+      for (String pathSpec : filterMapping.getPathSpecs()) {
+        if ((pathSpec != null) && PathMap.match(pathSpec, pathInContext, true)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    public List<FilterHolder> resolveFilters(final String pathInContext,
+        final ServletHolder servletHolder, final DispatcherType dispatcherType) {
+
+      List<FilterHolder> result = new ArrayList<>();
+      if (pathInContext != null) {
+        for (FilterMapping filterMapping : filterPathMappings) {
+          if (appliesTo(filterMapping, dispatcherType)
+              && matchesPath(filterMapping, pathInContext)) {
+            result.add(filterNameMap.get(filterMapping.getFilterName()));
+          }
+        }
+      }
+
+      if (servletHolder != null) {
+        resolveNameFilters(servletHolder.getName(), dispatcherType, result);
+        resolveNameFilters("*", dispatcherType, result);
+      }
+      return result;
+    }
+
+    private void resolveNameFilters(final String servletName,
+        final DispatcherType dispatcherType, final List<FilterHolder> result) {
+      List<FilterMapping> filterMappings = filterNameMappings.get(servletName);
+      if (filterMappings == null) {
+        return;
+      }
+      for (FilterMapping filterMapping : filterMappings) {
+        if (appliesTo(filterMapping, dispatcherType)) {
+          result.add(filterNameMap.get(filterMapping.getFilterName()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Immutable view of the servlets, filters and their mappings that is used to route requests.
+   * The servlet and filter parts are built separately, so an update that changes only one of them
+   * can reuse the other part of the previous snapshot.
+   */
+  private static final class MappingSnapshot {
+
+    private static Map<DispatcherType, ConcurrentMap<String, ResolvedFilterChain>>
+        createChainCaches() {
+      Map<DispatcherType, ConcurrentMap<String, ResolvedFilterChain>> chainCaches =
+          new EnumMap<>(DispatcherType.class);
+      for (DispatcherType dispatcherType : DispatcherType.values()) {
+        chainCaches.put(dispatcherType, new ConcurrentHashMap<>());
+      }
+      return Collections.unmodifiableMap(chainCaches);
+    }
+
+    public final Map<DispatcherType, ConcurrentMap<String, ResolvedFilterChain>> chainCaches;
+
+    public final FilterSnapshot filters;
+
+    public final ServletSnapshot servlets;
+
+    MappingSnapshot() {
+      this(new ServletSnapshot(new HashMap<>(), new PathMap<>()), new FilterSnapshot(null, null),
+          createChainCaches());
+    }
+
+    private MappingSnapshot(final ServletSnapshot servlets, final FilterSnapshot filters,
+        final Map<DispatcherType, ConcurrentMap<String, ResolvedFilterChain>> chainCaches) {
+      this.servlets = servlets;
+      this.filters = filters;
+      this.chainCaches = chainCaches;
+    }
+
+    /**
+     * Creates a snapshot with new filters. The filter chain cache is not reused, as all filter
+     * chains might have changed.
+     */
+    public MappingSnapshot withFilters(final FilterSnapshot newFilters) {
+      return new MappingSnapshot(servlets, newFilters, createChainCaches());
+    }
+
+    /**
+     * Creates a snapshot with new servlets. The cached filter chains are copied, apart from the
+     * chains that end in a servlet that is not available anymore. The rest of the chains are still
+     * valid, as a cached chain is only used if it ends in the servlet that is resolved for the
+     * request. The cache of this snapshot is not modified, as requests might still use it.
+     */
+    public MappingSnapshot withServlets(final ServletSnapshot newServlets) {
+      Map<DispatcherType, ConcurrentMap<String, ResolvedFilterChain>> newChainCaches =
+          createChainCaches();
+      for (DispatcherType dispatcherType : DispatcherType.values()) {
+        ConcurrentMap<String, ResolvedFilterChain> newChainCache = newChainCaches
+            .get(dispatcherType);
+        chainCaches.get(dispatcherType).forEach((key, resolvedFilterChain) -> {
+          ServletHolder servletHolder = resolvedFilterChain.servletHolder;
+          if (newServlets.servletNameMap.get(servletHolder.getName()) == servletHolder) {
+            newChainCache.put(key, resolvedFilterChain);
+          }
+        });
+      }
+      return new MappingSnapshot(newServlets, filters, newChainCaches);
+    }
+  }
+
+  /**
+   * Cache entry of a filter chain. The chain is null if there is no filter for the request.
+   */
+  private static final class ResolvedFilterChain {
+
+    public final FilterChain chain;
+
+    public final ServletHolder servletHolder;
+
+    ResolvedFilterChain(final FilterChain chain, final ServletHolder servletHolder) {
+      this.chain = chain;
+      this.servletHolder = servletHolder;
+    }
+  }
+
+  /**
+   * Immutable view of the servlets and their mappings.
+   */
+  private static final class ServletSnapshot {
+
+    private static void addPathSpecs(final ServletMapping servletMapping,
+        final Set<String> pathSpecs) {
+      if (servletMapping.getPathSpecs() != null) {
+        pathSpecs.addAll(Arrays.asList(servletMapping.getPathSpecs()));
+      }
+    }
+
+    /**
+     * Keeps the mapping of a path spec that is not a default mapping.
+     */
+    private static void resolveMapping(final Map<String, ServletMapping> mappingsByPathSpec,
+        final String pathSpec, final ServletMapping servletMapping) {
+      ServletMapping currentMapping = mappingsByPathSpec.get(pathSpec);
+      if ((currentMapping == null) || currentMapping.isDefault()) {
+        mappingsByPathSpec.put(pathSpec, servletMapping);
+      } else if (!servletMapping.isDefault()) {
+        throw new IllegalStateException("Multiple servlets map to path: " + pathSpec + ": "
+            + currentMapping.getServletName() + "," + servletMapping.getServletName());
+      }
+    }
+
+    public final Map<String, ServletHolder> servletNameMap;
+
+    public final PathMap<ServletHolder> servletPathMap;
+
+    ServletSnapshot(final ServletHolder[] servletHolders,
+        final ServletMapping[] servletMappings) {
+      Map<String, ServletHolder> servletNameMap = new HashMap<>();
+      if (servletHolders != null) {
+        for (ServletHolder servletHolder : servletHolders) {
+          servletNameMap.put(servletHolder.getName(), servletHolder);
+        }
+      }
+      this.servletNameMap = servletNameMap;
+      this.servletPathMap = createServletPathMap(servletMappings);
+    }
+
+    private ServletSnapshot(final Map<String, ServletHolder> servletNameMap,
+        final PathMap<ServletHolder> servletPathMap) {
+      this.servletNameMap = servletNameMap;
+      this.servletPathMap = servletPathMap;
+    }
+
+    /**
+     * Returns the path specs of the mappings that are added, removed or that point to a servlet
+     * that is added or removed.
+     */
+    private Set<String> collectChangedPathSpecs(final ServletMapping[] previousMappings,
+        final ServletMapping[] newMappings, final Set<String> changedServletNames) {
+
+      Set<String> result = new HashSet<>();
+      for (ServletMapping removedMapping : identityDifference(previousMappings, newMappings)) {
+        addPathSpecs(removedMapping, result);
+      }
+
+      Set<ServletMapping> addedMappings = Collections.newSetFromMap(new IdentityHashMap<>());
+      addedMappings.addAll(identityDifference(newMappings, previousMappings));
+      if (newMappings != null) {
+        for (ServletMapping servletMapping : newMappings) {
+          if (addedMappings.contains(servletMapping)
+              || changedServletNames.contains(servletMapping.getServletName())) {
+            addPathSpecs(servletMapping, result);
+          }
+        }
+      }
+      return result;
+    }
+
+    private PathMap<ServletHolder> createServletPathMap(final ServletMapping[] servletMappings) {
+      PathMap<ServletHolder> result = new PathMap<>();
+      if (servletMappings == null) {
+        return result;
+      }
+
+      Map<String, ServletMapping> mappingsByPathSpec = resolveMappingsByPathSpec(servletMappings,
+          null);
+      for (Map.Entry<String, ServletMapping> entry : mappingsByPathSpec.entrySet()) {
+        result.put(entry.getKey(), servletNameMap.get(entry.getValue().getServletName()));
+      }
+      return result;
+    }
+
+    /**
+     * Resolves the mapping that is used for each path spec. The mappings are validated in the same
+     * way as {@link ServletHandler#updateMappings()} does: a default mapping is only used if there
+     * is no other mapping for the same path.
+     *
+     * @param servletMappings
+     *          The servlet mappings.
+     * @param pathSpecFilter
+     *          The path specs that should be resolved or <code>null</code> if all path specs should
+     *          be resolved.
+     * @throws IllegalStateException
+     *           if a mapping points to an unknown servlet, if more servlets are mapped to the same
+     *           path spec without a default mapping or if all servlets of a path spec are disabled.
+     */
+    private Map<String, ServletMapping> resolveMappingsByPathSpec(
+        final ServletMapping[] servletMappings, final Set<String> pathSpecFilter) {
+
+      Map<String, ServletMapping> mappingsByPathSpec = new HashMap<>();
+      if (servletMappings == null) {
+        return mappingsByPathSpec;
+      }
+      Set<String> mappedPathSpecs = new HashSet<>();
+      for (ServletMapping servletMapping : servletMappings) {
+        String[] pathSpecs = servletMapping.getPathSpecs();
+        if (pathSpecs == null) {
+          continue;
+        }
+        ServletHolder servletHolder = servletNameMap.get(servletMapping.getServletName());
+        if (servletHolder == null) {
+          throw new IllegalStateException("No such servlet: " + servletMapping.getServletName());
+        }
+        for (String pathSpec : pathSpecs) {
+          if ((pathSpecFilter == null) || pathSpecFilter.contains(pathSpec)) {
+            mappedPathSpecs.add(pathSpec);
+            if (servletHolder.isEnabled()) {
+              resolveMapping(mappingsByPathSpec, pathSpec, servletMapping);
+            }
+          }
+        }
+      }
+      for (String pathSpec : mappedPathSpecs) {
+        if (!mappingsByPathSpec.containsKey(pathSpec)) {
+          throw new IllegalStateException("No acceptable servlet mappings for " + pathSpec);
+        }
+      }
+      return mappingsByPathSpec;
+    }
+
+    /**
+     * Checks that the path specs that were not changed by an incremental update are matched to the
+     * same servlet as in the previous snapshot, unless a changed path spec matches them now. Each
+     * path spec is used as the probe path.
+     */
+    private boolean resolvesUnchangedPathSpecsAs(final ServletSnapshot previousSnapshot,
+        final Set<String> changedPathSpecs) {
+      for (String pathSpec : previousSnapshot.servletPathMap.keySet()) {
+        MappedEntry<ServletHolder> previousMatch = previousSnapshot.servletPathMap
+            .getMatch(pathSpec);
+        if ((previousMatch != null) && !changedPathSpecs.contains(previousMatch.getKey())) {
+          MappedEntry<ServletHolder> match = servletPathMap.getMatch(pathSpec);
+          if ((match == null) || (!changedPathSpecs.contains(match.getKey())
+              && (match.getValue() != previousMatch.getValue()))) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Creates a snapshot of the new servlets and mappings from this snapshot that belongs to the
+     * previous ones. Only the entries of the removed and added servlets and mappings are
+     * recalculated.
+     */
+    public ServletSnapshot withChanges(final ServletHolder[] previousServletHolders,
+        final ServletMapping[] previousServletMappings, final ServletHolder[] newServletHolders,
+        final ServletMapping[] newServletMappings) {
+
+      Map<String, ServletHolder> newServletNameMap = new HashMap<>(servletNameMap);
+      Set<String> changedServletNames = new HashSet<>();
+      for (ServletHolder removedHolder : identityDifference(previousServletHolders,
+          newServletHolders)) {
+        newServletNameMap.remove(removedHolder.getName(), removedHolder);
+        changedServletNames.add(removedHolder.getName());
+      }
+      for (ServletHolder addedHolder : identityDifference(newServletHolders,
+          previousServletHolders)) {
+        newServletNameMap.put(addedHolder.getName(), addedHolder);
+        changedServletNames.add(addedHolder.getName());
+      }
+
+      Set<String> changedPathSpecs = collectChangedPathSpecs(previousServletMappings,
+          newServletMappings, changedServletNames);
+
+      // The copy constructor of PathMap does not fill the match tables, so every entry is put
+      PathMap<ServletHolder> newServletPathMap = new PathMap<>();
+      for (Map.Entry<String, ServletHolder> entry : servletPathMap.entrySet()) {
+        if (!changedPathSpecs.contains(entry.getKey())) {
+          newServletPathMap.put(entry.getKey(), entry.getValue());
+        }
+      }
+
+      ServletSnapshot result = new ServletSnapshot(newServletNameMap, newServletPathMap);
+      Map<String, ServletMapping> mappingsByPathSpec = result
+          .resolveMappingsByPathSpec(newServletMappings, changedPathSpecs);
+      for (Map.Entry<String, ServletMapping> entry : mappingsByPathSpec.entrySet()) {
+        newServletPathMap.put(entry.getKey(),
+            newServletNameMap.get(entry.getValue().getServletName()));
+      }
+      assert result.resolvesUnchangedPathSpecsAs(this, changedPathSpecs);
+      return result;
+    }
+  }
+
+  /**
+   * Immutable filter chain that calls the filters one after the other and the servlet at the end.
+   */
+  private final class SnapshotFilterChain implements FilterChain {
+
+    private final FilterHolder filterHolder;
+
+    private final FilterChain next;
+
+    private final ServletHolder servletHolder;
+
+    SnapshotFilterChain(final FilterHolder filterHolder, final FilterChain next,
+        final ServletHolder servletHolder) {
+      this.filterHolder = filterHolder;
+      this.next = next;
+      this.servletHolder = servletHolder;
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response)
+        throws IOException, ServletException {
+
+      Request baseRequest = Request.getBaseRequest(request);
+
+      if (filterHolder == null) {
+        if (servletHolder == null) {
+          notFound(baseRequest, (HttpServletRequest) request, (HttpServletResponse) response);
+        } else {
+          servletHolder.handle(baseRequest, request, response);
+        }
+        return;
+      }
+
+      Filter filter = filterHolder.getFilter();
+      if (!filterHolder.isAsyncSupported() && baseRequest.isAsyncSupported()) {
+        try {
+          baseRequest.setAsyncSupported(false);
+          filter.doFilter(request, response, next);
+        } finally {
+          baseRequest.setAsyncSupported(true);
+        }
+      } else {
+        filter.doFilter(request, response, next);
+      }
+    }
+  }
+
+  private static final Logger LOG = Log.getLogger(CustomServletHandler.class);
+
+  /**
+   * Checks whether two arrays contain the same elements in the same order. The elements are
+   * compared by their identity and a null array is handled as an empty one.
+   */
+  private static boolean identicalElements(final Object[] elements1, final Object[] elements2) {
+    int length1 = (elements1 == null) ? 0 : elements1.length;
+    int length2 = (elements2 == null) ? 0 : elements2.length;
+    if (length1 != length2) {
+      return false;
+    }
+    for (int i = 0; i < length1; i++) {
+      if (elements1[i] != elements2[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the elements of the first array that are not in the second array. The elements are
+   * compared by their identity.
+   */
+  private static <T> List<T> identityDifference(final T[] elements, final T[] excludedElements) {
+    List<T> result = new ArrayList<>();
+    if (elements == null) {
+      return result;
+    }
+
+    Set<T> excluded = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (excludedElements != null) {
+      excluded.addAll(Arrays.asList(excludedElements));
+    }
+
+    for (T element : elements) {
+      if (!excluded.contains(element)) {
+        result.add(element);
+      }
+    }
+    return result;
+  }
+
   private boolean ignoreUpdateMapping = false;
 
-  private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+  private volatile MappingSnapshot mappingSnapshot = new MappingSnapshot();
 
+  private FilterChain createFilterChain(final List<FilterHolder> filterHolders,
+      final ServletHolder servletHolder) {
+    FilterChain result = new SnapshotFilterChain(null, null, servletHolder);
+    for (int i = filterHolders.size() - 1; i >= 0; i--) {
+      result = new SnapshotFilterChain(filterHolders.get(i), result, servletHolder);
+    }
+    return result;
+  }
+
+  /**
+   * Does the same as the method of the superclass, but the filter chain is resolved from one
+   * mapping snapshot. The superclass decides whether a filter chain is needed based on its own
+   * filter mappings that are replaced during an update without synchronizing with the requests.
+   */
   @Override
   public void doHandle(final String target, final Request baseRequest,
-      final HttpServletRequest request,
-      final HttpServletResponse response) throws IOException, ServletException {
-    ReadLock readLock = readWriteLock.readLock();
-    readLock.lock();
+      final HttpServletRequest request, final HttpServletResponse response)
+      throws IOException, ServletException {
+
+    DispatcherType dispatcherType = baseRequest.getDispatcherType();
+    ServletHolder servletHolder = (ServletHolder) baseRequest.getUserIdentityScope();
+
+    MappingSnapshot snapshot = mappingSnapshot;
+    FilterChain chain = null;
+    if ((servletHolder != null) && snapshot.filters.hasFilterMappings()) {
+      String pathInContext = (target.startsWith("/")) ? target : null;
+      chain = resolveFilterChain(snapshot, baseRequest, pathInContext, servletHolder);
+    }
+    LOG.debug("chain={}", chain);
+
+    Throwable failure = null;
     try {
-      super.doHandle(target, baseRequest, request, response);
+      if (servletHolder == null) {
+        notFound(baseRequest, request, response);
+      } else {
+        ServletRequest req = request;
+        if (req instanceof ServletRequestHttpWrapper) {
+          req = ((ServletRequestHttpWrapper) req).getRequest();
+        }
+        ServletResponse res = response;
+        if (res instanceof ServletResponseHttpWrapper) {
+          res = ((ServletResponseHttpWrapper) res).getResponse();
+        }
+
+        prepareServlet(servletHolder, baseRequest);
+        if (chain != null) {
+          chain.doFilter(req, res);
+        } else {
+          servletHolder.handle(baseRequest, req, res);
+        }
+      }
+    } catch (EofException e) {
+      throw e;
+    } catch (RuntimeIOException e) {
+      if (e.getCause() instanceof IOException) {
+        LOG.debug(e);
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    } catch (Exception e) {
+      if (baseRequest.isAsyncStarted() || !isErrorHandledFor(dispatcherType)) {
+        rethrowIfPossible(e);
+      }
+      failure = e;
+      handleException(e, baseRequest, request, response);
+    } catch (Error e) {
+      if ("ContinuationThrowable".equals(e.getClass().getSimpleName())) {
+        throw e;
+      }
+      failure = e;
+      if (!isErrorHandledFor(dispatcherType)) {
+        throw e;
+      }
+      handleError(e, baseRequest, request, response);
     } finally {
-      readLock.unlock();
+      if ((failure != null) && request.isAsyncStarted()) {
+        baseRequest.getHttpChannelState().errorComplete();
+      }
+      if (servletHolder != null) {
+        baseRequest.setHandled(true);
+      }
     }
   }
 
@@ -58,12 +645,214 @@ public class CustomServletHandler extends ServletHandler {
   public void doScope(final String target, final Request baseRequest,
       final HttpServletRequest request,
       final HttpServletResponse response) throws IOException, ServletException {
-    ReadLock readLock = readWriteLock.readLock();
-    readLock.lock();
-    try {
+
+    if (target.startsWith("/")) {
       super.doScope(target, baseRequest, request, response);
+      return;
+    }
+
+    // Named dispatch. The superclass would read its own name map that is not safe to read during
+    // an update.
+    ServletHolder servletHolder = mappingSnapshot.servlets.servletNameMap.get(target);
+    UserIdentity.Scope oldScope = baseRequest.getUserIdentityScope();
+    baseRequest.setUserIdentityScope(servletHolder);
+    try {
+      nextScope(target, baseRequest, request, response);
     } finally {
-      readLock.unlock();
+      if (oldScope != null) {
+        baseRequest.setUserIdentityScope(oldScope);
+      }
+    }
+  }
+
+  @Override
+  protected synchronized void doStop() throws Exception {
+    super.doStop();
+    mappingSnapshot = new MappingSnapshot();
+  }
+
+  @Override
+  protected FilterChain getFilterChain(final Request baseRequest, final String pathInContext,
+      final ServletHolder servletHolder) {
+    return resolveFilterChain(mappingSnapshot, baseRequest, pathInContext, servletHolder);
+  }
+
+  @Override
+  public FilterHolder getFilter(final String name) {
+    return mappingSnapshot.filters.filterNameMap.get(name);
+  }
+
+  @Override
+  public MappedEntry<ServletHolder> getHolderEntry(final String pathInContext) {
+    return mappingSnapshot.servlets.servletPathMap.getMatch(pathInContext);
+  }
+
+  @Override
+  public ServletHolder getServlet(final String name) {
+    return mappingSnapshot.servlets.servletNameMap.get(name);
+  }
+
+  private void handleError(final Error error, final Request baseRequest,
+      final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+
+    LOG.warn("Error for " + request.getRequestURI(), error);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(request.toString());
+    }
+
+    request.setAttribute(RequestDispatcher.ERROR_EXCEPTION_TYPE, error.getClass());
+    request.setAttribute(RequestDispatcher.ERROR_EXCEPTION, error);
+    if (!response.isCommitted()) {
+      baseRequest.getResponse().getHttpFields().put(HttpHeader.CONNECTION, HttpHeaderValue.CLOSE);
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    } else {
+      LOG.debug("Response already committed for handling ", error);
+    }
+  }
+
+  private void handleException(final Exception exception, final Request baseRequest,
+      final HttpServletRequest request, final HttpServletResponse response)
+      throws IOException, ServletException {
+
+    if (exception instanceof ServletException) {
+      if (exception instanceof QuietServletException) {
+        LOG.warn(exception.toString());
+        LOG.debug(exception);
+      } else {
+        LOG.warn(exception);
+      }
+    } else if (exception instanceof EofException) {
+      throw (EofException) exception;
+    } else {
+      LOG.warn(request.getRequestURI(), exception);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(request.toString());
+      }
+    }
+
+    request.setAttribute(RequestDispatcher.ERROR_EXCEPTION_TYPE, exception.getClass());
+    request.setAttribute(RequestDispatcher.ERROR_EXCEPTION, exception);
+    if (response.isCommitted()) {
+      rethrowIfPossible(exception);
+      throw new IllegalStateException("response already committed", exception);
+    }
+
+    baseRequest.getResponse().getHttpFields().put(HttpHeader.CONNECTION, HttpHeaderValue.CLOSE);
+    if (exception instanceof UnavailableException) {
+      if (((UnavailableException) exception).isPermanent()) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      } else {
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      }
+    } else {
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  private boolean isErrorHandledFor(final DispatcherType dispatcherType) {
+    return (dispatcherType == DispatcherType.REQUEST) || (dispatcherType == DispatcherType.ASYNC);
+  }
+
+  /**
+   * Does the same as the protected prepare method of {@link ServletHolder}.
+   */
+  private void prepareServlet(final ServletHolder servletHolder, final Request baseRequest)
+      throws ServletException {
+    servletHolder.ensureInstance();
+    MultipartConfigElement multipartConfig =
+        ((ServletHolder.Registration) servletHolder.getRegistration()).getMultipartConfig();
+    if (multipartConfig != null) {
+      baseRequest.setAttribute(Request.__MULTIPART_CONFIG_ELEMENT, multipartConfig);
+    }
+  }
+
+  /**
+   * Publishes a new mapping snapshot.
+   *
+   * @param newFilters
+   *          The new filters or <code>null</code> if the filters of the current snapshot are kept.
+   * @param newServlets
+   *          The new servlets or <code>null</code> if the servlets of the current snapshot are
+   *          kept.
+   */
+  private void publishMappingSnapshot(final FilterSnapshot newFilters,
+      final ServletSnapshot newServlets) {
+    MappingSnapshot snapshot = mappingSnapshot;
+    if (newFilters != null) {
+      snapshot = snapshot.withFilters(newFilters);
+    }
+    if (newServlets != null) {
+      snapshot = snapshot.withServlets(newServlets);
+    }
+    mappingSnapshot = snapshot;
+  }
+
+  private FilterChain resolveFilterChain(final MappingSnapshot snapshot,
+      final Request baseRequest, final String pathInContext, final ServletHolder servletHolder) {
+
+    DispatcherType dispatcherType = baseRequest.getDispatcherType();
+    String key = (pathInContext == null) ? servletHolder.getName() : pathInContext;
+
+    ConcurrentMap<String, ResolvedFilterChain> chainCache = null;
+    if (isFilterChainsCached()) {
+      chainCache = snapshot.chainCaches.get(dispatcherType);
+      ResolvedFilterChain cached = chainCache.get(key);
+      // The holder may come from an older snapshot if an update happened during the request
+      if ((cached != null) && (cached.servletHolder == servletHolder)) {
+        return cached.chain;
+      }
+    }
+
+    List<FilterHolder> filterHolders =
+        snapshot.filters.resolveFilters(pathInContext, servletHolder, dispatcherType);
+
+    FilterChain chain = null;
+    if (!filterHolders.isEmpty()) {
+      chain = createFilterChain(filterHolders, servletHolder);
+    }
+
+    int maxCacheSize = getMaxFilterChainsCacheSize();
+    if ((chainCache != null) && ((maxCacheSize <= 0) || (chainCache.size() < maxCacheSize))) {
+      // Replaces the chain that ends in the servlet of a previous snapshot
+      chainCache.put(key, new ResolvedFilterChain(chain, servletHolder));
+    }
+    return chain;
+  }
+
+  private void rethrowIfPossible(final Exception exception) throws IOException, ServletException {
+    if (exception instanceof IOException) {
+      throw (IOException) exception;
+    }
+    if (exception instanceof RuntimeException) {
+      throw (RuntimeException) exception;
+    }
+    if (exception instanceof ServletException) {
+      throw (ServletException) exception;
+    }
+  }
+
+  private void startHolders(final List<Holder<?>> holders) {
+    List<Holder<?>> startedHolders = new ArrayList<>();
+    try {
+      for (Holder<?> holder : holders) {
+        startedHolders.add(holder);
+        holder.setServletHandler(this);
+        holder.start();
+        holder.initialize();
+      }
+    } catch (Exception e) {
+      stopHolders(startedHolders);
+      throw new JettyServerException(e);
+    }
+  }
+
+  private void stopHolders(final List<Holder<?>> holders) {
+    for (Holder<?> holder : holders) {
+      try {
+        holder.stop();
+      } catch (Exception e) {
+        LOG.warn("Error during stopping " + holder, e);
+      }
     }
   }
 
@@ -71,6 +860,8 @@ public class CustomServletHandler extends ServletHandler {
   protected synchronized void updateMappings() {
     if (!ignoreUpdateMapping) {
       super.updateMappings();
+      publishMappingSnapshot(new FilterSnapshot(getFilters(), getFilterMappings()),
+          new ServletSnapshot(getServlets(), getServletMappings()));
     }
   }
 
@@ -78,44 +869,99 @@ public class CustomServletHandler extends ServletHandler {
   protected synchronized void updateNameMappings() {
     if (!ignoreUpdateMapping) {
       super.updateNameMappings();
+      publishMappingSnapshot(new FilterSnapshot(getFilters(), getFilterMappings()),
+          new ServletSnapshot(getServlets(), getServletMappings()));
     }
   }
 
   /**
-   * Updates servlets and filters with their mappings atomically. No requests are processed during
-   * the update process so no request will fail due to inconsistent state.
+   * Updates servlets and filters with their mappings atomically. New servlets and filters are
+   * started and initialized before the new mappings are published and the removed ones are stopped
+   * afterwards, so requests that are processed during the update can use the previous snapshot of
+   * the mappings until the new one is published. No request will fail due to inconsistent state.
+   *
+   * <p>
+   * The arrays are compared by the identity of their elements with the current ones. If the
+   * servlets or the filters did not change, they are not set again and the related part of the
+   * mapping snapshot is reused.
+   *
+   * @throws IllegalStateException
+   *           if the servlet mappings are invalid. The handler is not changed in that case.
    */
-  public void updateServletsAndFilters(final ServletHolder[] servletHolders,
+  public synchronized void updateServletsAndFilters(final ServletHolder[] servletHolders,
       final ServletMapping[] servletMappings, final FilterHolder[] filterHolders,
       final FilterMapping[] filterMappings) {
-    WriteLock writeLock = readWriteLock.writeLock();
-    writeLock.lock();
+
+    boolean servletsChanged = !identicalElements(getServlets(), servletHolders)
+        || !identicalElements(getServletMappings(), servletMappings);
+    boolean filtersChanged = !identicalElements(getFilters(), filterHolders)
+        || !identicalElements(getFilterMappings(), filterMappings);
+
+    if (!servletsChanged && !filtersChanged) {
+      return;
+    }
+
+    // The new snapshots are built first, so an invalid mapping is rejected before any change
+    FilterSnapshot newFilters = null;
+    if (filtersChanged) {
+      newFilters = new FilterSnapshot(filterHolders, filterMappings);
+    }
+    boolean started = isStarted();
+    ServletSnapshot newServlets = null;
+    if (servletsChanged && started) {
+      newServlets = mappingSnapshot.servlets.withChanges(getServlets(), getServletMappings(),
+          servletHolders, servletMappings);
+    } else if (servletsChanged) {
+      newServlets = new ServletSnapshot(servletHolders, servletMappings);
+    }
+
+    List<Holder<?>> newHolders = new ArrayList<>(identityDifference(filterHolders, getFilters()));
+    List<ServletHolder> newServletHolders = identityDifference(servletHolders, getServlets());
+    // Servlets are initialized in the order of their init order like during the start of the
+    // handler
+    Collections.sort(newServletHolders);
+    newHolders.addAll(newServletHolders);
+
+    List<Holder<?>> removedHolders = new ArrayList<>(identityDifference(getFilters(),
+        filterHolders));
+    removedHolders.addAll(identityDifference(getServlets(), servletHolders));
+
+    if (started) {
+      startHolders(newHolders);
+      for (Holder<?> removedHolder : removedHolders) {
+        // Unmanaged beans are not stopped by the superclass when they are removed
+        unmanage(removedHolder);
+      }
+    }
+
     try {
       ignoreUpdateMapping = true;
-      setServlets(servletHolders);
-      setServletMappings(servletMappings);
-      setFilters(filterHolders);
+      if (servletsChanged) {
+        setServlets(servletHolders);
+        setServletMappings(servletMappings);
+      }
+      if (filtersChanged) {
+        setFilters(filterHolders);
+      }
 
-      if (isStarted()) {
-        for (ServletHolder servletHolder : servletHolders) {
-          manage(servletHolder);
-        }
-        for (FilterHolder filterHolder : filterHolders) {
-          manage(filterHolder);
+      if (started) {
+        for (Holder<?> newHolder : newHolders) {
+          manage(newHolder);
         }
       }
-      setFilterMappings(filterMappings);
-      ignoreUpdateMapping = false;
-      if (isStarted()) {
-        updateNameMappings();
-        updateMappings();
+      if (filtersChanged) {
+        setFilterMappings(filterMappings);
       }
+      ignoreUpdateMapping = false;
+
+      // The maps of the superclass are not recalculated, as requests are routed via the snapshot
+      publishMappingSnapshot(newFilters, newServlets);
     } finally {
-      try {
-        ignoreUpdateMapping = false;
-      } finally {
-        writeLock.unlock();
-      }
+      ignoreUpdateMapping = false;
+    }
+
+    if (started) {
+      stopHolders(removedHolders);
     }
   }
 }
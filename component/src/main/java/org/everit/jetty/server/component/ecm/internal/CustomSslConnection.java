@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLSession;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
+
+/**
+ * {@link SslConnection} that reports the first completed handshake to a
+ * {@link SslSessionResumptionCounter}. The server side of a handshake completes when the last
+ * handshake message of the client is unwrapped, so the handshake status is checked after the
+ * reads of the decrypted endpoint until the handshake is counted.
+ */
+public class CustomSslConnection extends SslConnection {
+
+  /**
+   * {@link DecryptedEndPoint} that counts the handshake after the read that completed it.
+   */
+  private class HandshakeCountingDecryptedEndPoint extends DecryptedEndPoint {
+
+    private boolean handshakeCounted = false;
+
+    @Override
+    public synchronized int fill(final ByteBuffer buffer) throws IOException {
+      int result = super.fill(buffer);
+      if (!handshakeCounted) {
+        handshakeCounted = countCompletedHandshake();
+      }
+      return result;
+    }
+  }
+
+  private static final String NULL_CIPHER_SUITE = "SSL_NULL_WITH_NULL_NULL";
+
+  private final SslSessionResumptionCounter resumptionCounter;
+
+  /**
+   * Constructor.
+   */
+  public CustomSslConnection(final ByteBufferPool byteBufferPool, final Executor executor,
+      final EndPoint endPoint, final SSLEngine sslEngine,
+      final SslSessionResumptionCounter resumptionCounter) {
+    super(byteBufferPool, executor, endPoint, sslEngine);
+    this.resumptionCounter = resumptionCounter;
+  }
+
+  private boolean countCompletedHandshake() {
+    SSLEngine sslEngine = getSSLEngine();
+    if (sslEngine.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING) {
+      return false;
+    }
+    SSLSession session = sslEngine.getSession();
+    if (NULL_CIPHER_SUITE.equals(session.getCipherSuite())) {
+      return false;
+    }
+    resumptionCounter.handshakeCompleted(session);
+    return true;
+  }
+
+  @Override
+  protected DecryptedEndPoint newDecryptedEndPoint() {
+    return new HandshakeCountingDecryptedEndPoint();
+  }
+}
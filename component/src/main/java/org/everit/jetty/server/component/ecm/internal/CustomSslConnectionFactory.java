@@ -15,53 +15,83 @@
  */
 package org.everit.jetty.server.component.ecm.internal;
 
-import java.util.ConcurrentModificationException;
-import java.util.HashSet;
 import java.util.Set;
-import java.util.WeakHashMap;
+
+import javax.net.ssl.SSLEngine;
 
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.SslConnectionFactory;
-import org.eclipse.jetty.util.ssl.SslContextFactory;
-import org.everit.osgi.jetty.server.ReferencedEndPointsCloseable;
 
 /**
- * {@link SslConnectionFactory} that implements {@link ReferencedEndPointsCloseable}.
+ * {@link SslConnectionFactory} that implements {@link ReferencedEndPointsDrainable} and counts the
+ * resumed and the full handshakes of its connections. The {@link CustomSslContextFactory} is
+ * retained while the connection factory runs, so it is not stopped together with the connection
+ * factory if other connectors use it, too.
  */
 public class CustomSslConnectionFactory extends SslConnectionFactory implements
-    ReferencedEndPointsCloseable {
+    ReferencedEndPointsDrainable {
+
+  private final EndPointRegistry referencedEndPoints = new EndPointRegistry();
+
+  private final SslSessionResumptionCounter resumptionCounter;
 
-  private final WeakHashMap<EndPoint, Boolean> referencedEndPoints = new WeakHashMap<>();
+  private final CustomSslContextFactory sslContextFactory;
 
-  public CustomSslConnectionFactory(final SslContextFactory factory, final String nextProtocol) {
+  /**
+   * Constructor.
+   */
+  public CustomSslConnectionFactory(final CustomSslContextFactory factory,
+      final String nextProtocol, final SslSessionResumptionCounter resumptionCounter) {
     super(factory, nextProtocol);
+    this.sslContextFactory = factory;
+    this.resumptionCounter = resumptionCounter;
   }
 
-  private synchronized Set<EndPoint> cloneReferencedEndPoints() {
-    Set<EndPoint> result = null;
-    while (result == null) {
-      try {
-        result = new HashSet<EndPoint>(referencedEndPoints.keySet());
-      } catch (ConcurrentModificationException e) {
-        // TODO probably some warn logging would be nice
-      }
+  @Override
+  public void closeReferencedEndpoints() {
+    referencedEndPoints.closeAll();
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    // The running context factory is not managed by this connection factory
+    sslContextFactory.retain();
+    try {
+      super.doStart();
+    } catch (Exception e) {
+      sslContextFactory.release();
+      throw e;
     }
-    return result;
   }
 
   @Override
-  public void closeReferencedEndpoints() {
-    Set<EndPoint> endPoints = cloneReferencedEndPoints();
-    for (EndPoint endPoint : endPoints) {
-      endPoint.close();
+  protected void doStop() throws Exception {
+    try {
+      super.doStop();
+    } finally {
+      sslContextFactory.release();
     }
   }
 
+  @Override
+  public Set<EndPoint> drainReferencedEndpoints() {
+    return referencedEndPoints.drain();
+  }
+
   @Override
   public Connection newConnection(final Connector connector, final EndPoint endPoint) {
-    referencedEndPoints.put(endPoint, Boolean.TRUE);
-    return super.newConnection(connector, endPoint);
+    Connection result = super.newConnection(connector, endPoint);
+    referencedEndPoints.register(result);
+    return result;
+  }
+
+  @Override
+  protected SslConnection newSslConnection(final Connector connector, final EndPoint endPoint,
+      final SSLEngine engine) {
+    return new CustomSslConnection(connector.getByteBufferPool(), connector.getExecutor(),
+        endPoint, engine, resumptionCounter);
   }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+/**
+ * {@link SslContextFactory} that applies the session cache size, the session timeout and the
+ * session caching flag on the server session context of the created {@link SSLContext}. The
+ * original implementation only stores these values. The settings can be changed while the factory
+ * is running. JSSE cannot switch off the session cache, so if session caching is disabled, the
+ * cache holds only one session that expires after one second.
+ *
+ * <p>
+ * The factory can be shared by several connection factories. Each of them retains the factory
+ * when it starts and releases it when it stops, so the factory is started only once and it is
+ * stopped when it is not used anymore.
+ *
+ * <p>
+ * The key material of a running factory cannot be changed, so new key material is loaded by
+ * another factory that is passed to {@link #swapKeyMaterial(CustomSslContextFactory)}. The SSL
+ * engines of the new connections are created by that factory afterwards, while the connections
+ * that were opened before keep their engines.
+ *
+ * <p>
+ * If no certificate alias is set, the certificate is selected by the SNI host name of the client
+ * from the index of host names and wildcard domains that is built when the factory starts. The
+ * certificate with the default alias is used for the clients that do not send a host name or whose
+ * host name has no certificate.
+ */
+public class CustomSslContextFactory extends SslContextFactory {
+
+  private static final int DISABLED_SESSION_CACHE_SIZE = 1;
+
+  private static final int DISABLED_SESSION_TIMEOUT = 1;
+
+  private String defaultCertAlias;
+
+  private String keyManagerPassword;
+
+  private volatile CustomSslContextFactory keyMaterialFactory;
+
+  private String keyStorePassword;
+
+  private int jvmSessionCacheSize;
+
+  private int jvmSessionTimeout;
+
+  private int referenceCount = 0;
+
+  /**
+   * Constructor.
+   */
+  public CustomSslContextFactory() {
+    // Negative values keep the defaults of the JVM
+    super.setSslSessionCacheSize(-1);
+    super.setSslSessionTimeout(-1);
+    addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+      @Override
+      public void lifeCycleStarted(final LifeCycle event) {
+        SSLSessionContext sessionContext = getSslContext().getServerSessionContext();
+        if (sessionContext != null) {
+          // Restored if the session caching is enabled again
+          jvmSessionCacheSize = sessionContext.getSessionCacheSize();
+          jvmSessionTimeout = sessionContext.getSessionTimeout();
+        }
+        updateServerSessionContext();
+      }
+    });
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    super.doStart();
+    CustomSslContextFactory currentKeyMaterialFactory = keyMaterialFactory;
+    if (currentKeyMaterialFactory != null) {
+      currentKeyMaterialFactory.start();
+    }
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    CustomSslContextFactory currentKeyMaterialFactory = keyMaterialFactory;
+    if (currentKeyMaterialFactory != null) {
+      currentKeyMaterialFactory.stop();
+    }
+    super.doStop();
+  }
+
+  @Override
+  protected KeyManager[] getKeyManagers(final KeyStore keyStore) throws Exception {
+    if ((defaultCertAlias == null) || (getCertAlias() != null) || (keyStore == null)) {
+      return super.getKeyManagers(keyStore);
+    }
+
+    KeyManagerFactory keyManagerFactory =
+        KeyManagerFactory.getInstance(getSslKeyManagerFactoryAlgorithm());
+    String password = (keyManagerPassword != null) ? keyManagerPassword : keyStorePassword;
+    keyManagerFactory.init(keyStore, (password != null) ? password.toCharArray() : null);
+
+    KeyManager[] keyManagers = keyManagerFactory.getKeyManagers();
+    for (int i = 0; i < keyManagers.length; i++) {
+      if (keyManagers[i] instanceof X509ExtendedKeyManager) {
+        keyManagers[i] = new DefaultAliasSniX509ExtendedKeyManager(
+            (X509ExtendedKeyManager) keyManagers[i], defaultCertAlias);
+      }
+    }
+    return keyManagers;
+  }
+
+  @Override
+  public SSLEngine newSSLEngine() {
+    CustomSslContextFactory currentKeyMaterialFactory = keyMaterialFactory;
+    if (currentKeyMaterialFactory != null) {
+      return currentKeyMaterialFactory.newSSLEngine();
+    }
+    return super.newSSLEngine();
+  }
+
+  @Override
+  public SSLEngine newSSLEngine(final String host, final int port) {
+    CustomSslContextFactory currentKeyMaterialFactory = keyMaterialFactory;
+    if (currentKeyMaterialFactory != null) {
+      return currentKeyMaterialFactory.newSSLEngine(host, port);
+    }
+    return super.newSSLEngine(host, port);
+  }
+
+  /**
+   * Releases a reference that was taken by {@link #retain()} and stops the factory if it was the
+   * last one.
+   *
+   * @throws Exception
+   *           if the factory could not be stopped.
+   */
+  public synchronized void release() throws Exception {
+    referenceCount--;
+    if (referenceCount == 0) {
+      stop();
+    }
+  }
+
+  /**
+   * Takes a reference on the factory and starts it if it is not running yet.
+   *
+   * @throws Exception
+   *           if the factory could not be started.
+   */
+  public synchronized void retain() throws Exception {
+    if (referenceCount == 0) {
+      start();
+    }
+    referenceCount++;
+  }
+
+  /**
+   * Sets the alias of the certificate that is used if the certificate could not be selected by the
+   * SNI host name of the client. It is not used if a certificate alias is set.
+   *
+   * @param defaultCertAlias
+   *          The alias of the default certificate or <code>null</code> to let the key manager
+   *          choose.
+   */
+  public void setDefaultCertAlias(final String defaultCertAlias) {
+    this.defaultCertAlias = defaultCertAlias;
+  }
+
+  @Override
+  public void setKeyManagerPassword(final String password) {
+    super.setKeyManagerPassword(password);
+    keyManagerPassword = password;
+  }
+
+  @Override
+  public void setKeyStorePassword(final String password) {
+    super.setKeyStorePassword(password);
+    keyStorePassword = password;
+  }
+
+  @Override
+  public void setSessionCachingEnabled(final boolean enableSessionCaching) {
+    super.setSessionCachingEnabled(enableSessionCaching);
+    updateServerSessionContext();
+    CustomSslContextFactory currentKeyMaterialFactory = keyMaterialFactory;
+    if (currentKeyMaterialFactory != null) {
+      currentKeyMaterialFactory.setSessionCachingEnabled(enableSessionCaching);
+    }
+  }
+
+  @Override
+  public void setSslSessionCacheSize(final int sslSessionCacheSize) {
+    super.setSslSessionCacheSize(sslSessionCacheSize);
+    updateServerSessionContext();
+    CustomSslContextFactory currentKeyMaterialFactory = keyMaterialFactory;
+    if (currentKeyMaterialFactory != null) {
+      currentKeyMaterialFactory.setSslSessionCacheSize(sslSessionCacheSize);
+    }
+  }
+
+  @Override
+  public void setSslSessionTimeout(final int sslSessionTimeout) {
+    super.setSslSessionTimeout(sslSessionTimeout);
+    updateServerSessionContext();
+    CustomSslContextFactory currentKeyMaterialFactory = keyMaterialFactory;
+    if (currentKeyMaterialFactory != null) {
+      currentKeyMaterialFactory.setSslSessionTimeout(sslSessionTimeout);
+    }
+  }
+
+  /**
+   * Lets the passed factory create the SSL engines of the new connections. The passed factory is
+   * started if this factory is running, so the previous key material is kept if the new one cannot
+   * be loaded. The factory that was passed previously is stopped.
+   *
+   * @param newKeyMaterialFactory
+   *          A factory that is configured the same way as this one, apart from the key material.
+   * @throws Exception
+   *           if the passed factory could not be started.
+   */
+  public synchronized void swapKeyMaterial(final CustomSslContextFactory newKeyMaterialFactory)
+      throws Exception {
+    if (isRunning()) {
+      newKeyMaterialFactory.start();
+    }
+    CustomSslContextFactory previousKeyMaterialFactory = keyMaterialFactory;
+    keyMaterialFactory = newKeyMaterialFactory;
+    if (previousKeyMaterialFactory != null) {
+      previousKeyMaterialFactory.stop();
+    }
+  }
+
+  private void updateServerSessionContext() {
+    if (!isStarted()) {
+      return;
+    }
+    SSLSessionContext sessionContext = getSslContext().getServerSessionContext();
+    if (sessionContext == null) {
+      return;
+    }
+    if (!isSessionCachingEnabled()) {
+      sessionContext.setSessionCacheSize(DISABLED_SESSION_CACHE_SIZE);
+      sessionContext.setSessionTimeout(DISABLED_SESSION_TIMEOUT);
+      return;
+    }
+    int sslSessionCacheSize = getSslSessionCacheSize();
+    sessionContext.setSessionCacheSize(
+        (sslSessionCacheSize >= 0) ? sslSessionCacheSize : jvmSessionCacheSize);
+    int sslSessionTimeout = getSslSessionTimeout();
+    sessionContext.setSessionTimeout(
+        (sslSessionTimeout >= 0) ? sslSessionTimeout : jvmSessionTimeout);
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConfiguration.Customizer;
+import org.eclipse.jetty.server.Request;
+
+/**
+ * {@link Customizer} that invokes a replaceable array of customizers in order. The array is
+ * replaced with a single volatile write, so every request sees either the old or the new
+ * customizers completely and the customizers of open connections can be changed without
+ * recreating their {@link HttpConfiguration}.
+ */
+public class CustomizerChain implements Customizer {
+
+  private volatile Customizer[] customizers = new Customizer[0];
+
+  @Override
+  public void customize(final Connector connector, final HttpConfiguration channelConfig,
+      final Request request) {
+    for (Customizer customizer : customizers) {
+      customizer.customize(connector, channelConfig, request);
+    }
+  }
+
+  public void setCustomizers(final Customizer[] customizers) {
+    this.customizers = customizers.clone();
+  }
+}
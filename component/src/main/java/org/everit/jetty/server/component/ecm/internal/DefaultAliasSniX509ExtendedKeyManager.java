@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.security.Principal;
+import java.util.Collection;
+
+import javax.net.ssl.SNIMatcher;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.eclipse.jetty.util.ssl.SniX509ExtendedKeyManager;
+
+/**
+ * {@link SniX509ExtendedKeyManager} that selects a configured certificate if the client did not
+ * send an SNI host name or there is no certificate for the host name. The original implementation
+ * lets the wrapped key manager choose any of the certificates in that case.
+ */
+public class DefaultAliasSniX509ExtendedKeyManager extends SniX509ExtendedKeyManager {
+
+  /**
+   * The value that the super class returns if the certificate was not selected by the host name.
+   */
+  private static final String NO_MATCHERS = "no_matchers";
+
+  private final String defaultAlias;
+
+  private final X509ExtendedKeyManager delegate;
+
+  /**
+   * Constructor.
+   *
+   * @param keyManager
+   *          The key manager that holds all certificates of the keystore.
+   * @param defaultAlias
+   *          The alias of the certificate that is used if none was selected by the host name.
+   */
+  public DefaultAliasSniX509ExtendedKeyManager(final X509ExtendedKeyManager keyManager,
+      final String defaultAlias) {
+    super(keyManager);
+    this.delegate = keyManager;
+    this.defaultAlias = defaultAlias;
+  }
+
+  @Override
+  protected String chooseServerAlias(final String keyType, final Principal[] issuers,
+      final Collection<SNIMatcher> matchers, final SSLSession session) {
+    String alias = super.chooseServerAlias(keyType, issuers, matchers, session);
+    if (!NO_MATCHERS.equals(alias)) {
+      return alias;
+    }
+
+    String[] aliases = delegate.getServerAliases(keyType, issuers);
+    if (aliases != null) {
+      for (String serverAlias : aliases) {
+        if (defaultAlias.equals(serverAlias)) {
+          return defaultAlias;
+        }
+      }
+    }
+    return alias;
+  }
+}
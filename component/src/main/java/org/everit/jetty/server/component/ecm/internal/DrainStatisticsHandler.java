@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+
+/**
+ * A {@link StatisticsHandler} that remembers the request counters at the beginning of a graceful
+ * shutdown and when the server finished waiting for the shutdown, so it can tell how many requests
+ * were drained and how many were still running when the connectors were stopped.
+ */
+public class DrainStatisticsHandler extends StatisticsHandler {
+
+  /**
+   * Records the number of active requests each time the server waits for or checks the shutdown
+   * future. The server checks all shutdown futures after the wait and before it stops the
+   * connectors, so the last recorded value belongs to the end of the wait.
+   */
+  private class ShutdownWaitFuture implements Future<Void> {
+
+    private final Future<Void> delegate;
+
+    ShutdownWaitFuture(final Future<Void> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+      recordRequestsActiveAfterShutdownWait();
+      return delegate.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+      try {
+        return delegate.get();
+      } finally {
+        recordRequestsActiveAfterShutdownWait();
+      }
+    }
+
+    @Override
+    public Void get(final long timeout, final TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      try {
+        return delegate.get(timeout, unit);
+      } finally {
+        recordRequestsActiveAfterShutdownWait();
+      }
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return delegate.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      boolean done = delegate.isDone();
+      recordRequestsActiveAfterShutdownWait();
+      return done;
+    }
+  }
+
+  private volatile int requestsActiveAtShutdown;
+
+  private volatile int requestsActiveAtStop;
+
+  private volatile int requestsAtShutdown;
+
+  private volatile boolean shutdownCalled = false;
+
+  private volatile boolean shutdownWaited = false;
+
+  @Override
+  protected void doStop() throws Exception {
+    if (!shutdownWaited) {
+      requestsActiveAtStop = getRequestsActive();
+    }
+    super.doStop();
+  }
+
+  /**
+   * Returns the number of requests that were still active when the server finished waiting for the
+   * graceful shutdown. If the server did not wait, the requests that were active when the handler
+   * was stopped are returned.
+   *
+   * @return The number of aborted requests.
+   */
+  public int getAbortedRequests() {
+    return requestsActiveAtStop;
+  }
+
+  /**
+   * Returns the number of requests that were completed between the beginning of the graceful
+   * shutdown and the end of the wait for the shutdown.
+   *
+   * @return The number of drained requests.
+   */
+  public int getDrainedRequests() {
+    if (!shutdownCalled) {
+      return 0;
+    }
+    int requestsDuringShutdown = getRequests() - requestsAtShutdown;
+    return Math.max(0, (requestsActiveAtShutdown + requestsDuringShutdown) - requestsActiveAtStop);
+  }
+
+  @Override
+  public Future<Void> shutdown() {
+    if (!shutdownCalled) {
+      requestsAtShutdown = getRequests();
+      requestsActiveAtShutdown = getRequestsActive();
+      shutdownCalled = true;
+    }
+    return new ShutdownWaitFuture(super.shutdown());
+  }
+
+  private void recordRequestsActiveAfterShutdownWait() {
+    requestsActiveAtStop = getRequestsActive();
+    shutdownWaited = true;
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.everit.osgi.jetty.server.ReferencedEndPointsCloseable;
+
+/**
+ * Closes the referenced endpoints of connection factories after a dynamic update. With a positive
+ * drain timeout the idle endpoints are closed right away, while the busy ones can finish their
+ * current response. The endpoints that are still open when the timeout elapses are closed and
+ * reported.
+ */
+public class EndPointDrainer {
+
+  private static final Logger LOG = Log.getLogger(EndPointDrainer.class);
+
+  private ScheduledExecutorService scheduler;
+
+  private final String threadName;
+
+  public EndPointDrainer(final String threadName) {
+    this.threadName = threadName;
+  }
+
+  private void closeBusyEndPoints(final Set<EndPoint> busyEndPoints, final long drainTimeout) {
+    int closedEndPointCount = 0;
+    for (EndPoint endPoint : busyEndPoints) {
+      if (endPoint.isOpen()) {
+        endPoint.close();
+        closedEndPointCount++;
+      }
+    }
+
+    if (closedEndPointCount > 0) {
+      LOG.warn("{} of {} busy connection(s) did not finish within the drain timeout of {} ms and "
+          + "were closed", closedEndPointCount, busyEndPoints.size(), drainTimeout);
+    } else {
+      LOG.debug("All {} busy connection(s) finished within the drain timeout of {} ms",
+          busyEndPoints.size(), drainTimeout);
+    }
+  }
+
+  /**
+   * Closes the referenced endpoints of the connection factories.
+   *
+   * @param connectionFactories
+   *          The connection factories whose endpoints should be closed.
+   * @param drainTimeout
+   *          The time in milliseconds that busy endpoints have to finish their current response.
+   *          Zero or a negative value means that every endpoint is closed immediately.
+   */
+  public synchronized void drain(
+      final Collection<? extends ReferencedEndPointsCloseable> connectionFactories,
+      final long drainTimeout) {
+
+    Set<EndPoint> busyEndPoints = new HashSet<>();
+    for (ReferencedEndPointsCloseable connectionFactory : connectionFactories) {
+      if ((drainTimeout > 0) && (connectionFactory instanceof ReferencedEndPointsDrainable)) {
+        busyEndPoints.addAll(
+            ((ReferencedEndPointsDrainable) connectionFactory).drainReferencedEndpoints());
+      } else {
+        connectionFactory.closeReferencedEndpoints();
+      }
+    }
+
+    if (busyEndPoints.isEmpty()) {
+      return;
+    }
+
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, threadName);
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    scheduler.schedule(() -> closeBusyEndPoints(busyEndPoints, drainTimeout), drainTimeout,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the scheduler of the drain timeouts. The endpoints that are still draining are closed
+   * when their connector is stopped.
+   */
+  public synchronized void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
+
+/**
+ * Lock-free registry of the {@link EndPoint}s of open connections. A connection is removed from
+ * the registry when it is closed, so the registry does not need weak references and it can be
+ * iterated without copying.
+ */
+public class EndPointRegistry implements Connection.Listener {
+
+  private final Set<EndPoint> endPoints = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Closes all endpoints that are currently registered. Connections that are registered during
+   * the call may or may not be closed.
+   */
+  public void closeAll() {
+    for (EndPoint endPoint : endPoints) {
+      endPoint.close();
+    }
+  }
+
+  /**
+   * Closes the idle {@link CustomHttpConnection}s and marks the busy ones to be closed by their own
+   * thread after the current response. Endpoints of other protocols are left open.
+   *
+   * @return The endpoints that were not closed.
+   */
+  public Set<EndPoint> drain() {
+    Set<EndPoint> busyEndPoints = new HashSet<>();
+    for (EndPoint endPoint : endPoints) {
+      CustomHttpConnection httpConnection = resolveHttpConnection(endPoint.getConnection());
+      if ((httpConnection == null) || !httpConnection.drain()) {
+        busyEndPoints.add(endPoint);
+      }
+    }
+    return busyEndPoints;
+  }
+
+  @Override
+  public void onClosed(final Connection connection) {
+    endPoints.remove(connection.getEndPoint());
+  }
+
+  @Override
+  public void onOpened(final Connection connection) {
+    // Connections are registered when they are created
+  }
+
+  private CustomHttpConnection resolveHttpConnection(final Connection connection) {
+    Connection applicationConnection = connection;
+    if (connection instanceof SslConnection) {
+      applicationConnection = ((SslConnection) connection).getDecryptedEndPoint().getConnection();
+    }
+    if (applicationConnection instanceof CustomHttpConnection) {
+      return (CustomHttpConnection) applicationConnection;
+    }
+    return null;
+  }
+
+  /**
+   * Registers the endpoint of a connection until the connection is closed.
+   *
+   * @param connection
+   *          The new connection.
+   */
+  public void register(final Connection connection) {
+    endPoints.add(connection.getEndPoint());
+    connection.addListener(this);
+  }
+}
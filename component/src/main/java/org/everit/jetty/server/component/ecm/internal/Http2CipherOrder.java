@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+/**
+ * Orders the cipher suites for HTTP/2. The HTTP/2 classes are only referenced from this class, so
+ * they are not loaded if the TLS connections do not negotiate the next protocol with ALPN and the
+ * HTTP/2 bundles are not needed.
+ */
+public final class Http2CipherOrder {
+
+  /**
+   * Makes the server prefer the cipher suites that are allowed by HTTP/2.
+   *
+   * @param sslContextFactory
+   *          The factory that creates the SSL engines of the connections.
+   */
+  public static void apply(final SslContextFactory sslContextFactory) {
+    sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+    sslContextFactory.setUseCipherSuitesOrder(true);
+  }
+
+  private Http2CipherOrder() {
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration.Customizer;
+import org.everit.jetty.server.component.ecm.Http2ConnectionFactoryFactoryConstants;
+import org.everit.jetty.server.component.ecm.Http2cConnectionFactoryFactoryConstants;
+import org.everit.jetty.server.component.ecm.PriorityConstants;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ECMExtenderConstants;
+import org.everit.osgi.jetty.server.ConnectionFactoryFactory;
+import org.osgi.framework.Constants;
+
+import aQute.bnd.annotation.headers.ProvideCapability;
+
+/**
+ * ECM based configurable component that can create {@link HTTP2ServerConnectionFactory}s for
+ * HTTP/2 over TLS. The factory should be listed after an SslConnectionFactory Factory and an
+ * ALPNServerConnectionFactory Factory on the same connector, so the clients that support HTTP/2
+ * can select it during the TLS handshake.
+ */
+@Component(componentId = Http2ConnectionFactoryFactoryConstants.SERVICE_FACTORY_PID,
+    configurationPolicy = ConfigurationPolicy.FACTORY,
+    label = "Everit Jetty HTTP2ServerConnectionFactory Factory",
+    description = "Component to create HTTP/2 over TLS (h2) connection factories.")
+@ProvideCapability(ns = ECMExtenderConstants.CAPABILITY_NS_COMPONENT,
+    value = ECMExtenderConstants.CAPABILITY_ATTR_CLASS + "=${@class}")
+@StringAttributes({
+    @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
+        label = "Service description",
+        description = "Optional description for the instantiated HTTP2ServerConnectionFactory "
+            + "Factory.") })
+@Service
+public class Http2ConnectionFactoryFactoryComponent implements ConnectionFactoryFactory {
+
+  private final Http2ConnectionFactorySettings<CustomHttp2ServerConnectionFactory> settings =
+      new Http2ConnectionFactorySettings<>(CustomHttp2ServerConnectionFactory::new);
+
+  @Override
+  public ConnectionFactory createConnectionFactory(final String nextProtocol) {
+    return settings.createConnectionFactory();
+  }
+
+  @ServiceRef(referenceId = Http2cConnectionFactoryFactoryConstants.ATTR_CUSTOMIZERS,
+      optional = true, attributePriority = PriorityConstants.PRIORITY_01,
+      label = "Customizers (target)",
+      description = "Customizers are invoked for every request received. Customizers are often "
+          + "used to interpret optional headers (eg ForwardedRequestCustomizer) or optional "
+          + "protocol semantics (eg SecureRequestCustomizer).")
+  public void setCustomizers(final Customizer[] customizers) {
+    settings.setCustomizers(customizers);
+  }
+
+  /**
+   * Sets the initial flow control window of the streams. The change is applied on the
+   * connections that are opened afterwards.
+   */
+  @IntegerAttribute(
+      attributeId = Http2cConnectionFactoryFactoryConstants.ATTR_INITIAL_STREAM_SEND_WINDOW,
+      defaultValue = Http2cConnectionFactoryFactoryConstants.DEFAULT_INITIAL_STREAM_SEND_WINDOW,
+      dynamic = true, priority = PriorityConstants.PRIORITY_03,
+      label = "Initial stream window",
+      description = "The initial flow control window size of the streams in bytes. Bigger windows "
+          + "let a stream transfer more data without waiting for window updates.")
+  public void setInitialStreamSendWindow(final int initialStreamSendWindow) {
+    settings.setInitialStreamSendWindow(initialStreamSendWindow);
+  }
+
+  /**
+   * Sets the input buffer size of the connections that are opened afterwards.
+   */
+  @IntegerAttribute(attributeId = Http2cConnectionFactoryFactoryConstants.ATTR_INPUT_BUFFER_SIZE,
+      defaultValue = Http2cConnectionFactoryFactoryConstants.DEFAULT_INPUT_BUFFER_SIZE,
+      dynamic = true, priority = PriorityConstants.PRIORITY_06, label = "Input buffer size",
+      description = "Size of the input buffer of the created connections in bytes.")
+  public void setInputBufferSize(final int inputBufferSize) {
+    settings.setInputBufferSize(inputBufferSize);
+  }
+
+  /**
+   * Sets the maximum number of concurrent streams of the connections that are opened afterwards.
+   */
+  @IntegerAttribute(
+      attributeId = Http2cConnectionFactoryFactoryConstants.ATTR_MAX_CONCURRENT_STREAMS,
+      defaultValue = Http2cConnectionFactoryFactoryConstants.DEFAULT_MAX_CONCURRENT_STREAMS,
+      dynamic = true, priority = PriorityConstants.PRIORITY_02, label = "Max. concurrent streams",
+      description = "The maximum number of streams that can be open on one connection at the "
+          + "same time. A negative value means unlimited.")
+  public void setMaxConcurrentStreams(final int maxConcurrentStreams) {
+    settings.setMaxConcurrentStreams(maxConcurrentStreams);
+  }
+
+  /**
+   * Sets the HPACK header table size of the connections that are opened afterwards.
+   */
+  @IntegerAttribute(
+      attributeId = Http2cConnectionFactoryFactoryConstants.ATTR_MAX_DYNAMIC_TABLE_SIZE,
+      defaultValue = Http2cConnectionFactoryFactoryConstants.DEFAULT_MAX_DYNAMIC_TABLE_SIZE,
+      dynamic = true, priority = PriorityConstants.PRIORITY_04, label = "Header table size",
+      description = "The maximum size of the HPACK dynamic header table in bytes.")
+  public void setMaxDynamicTableSize(final int maxDynamicTableSize) {
+    settings.setMaxDynamicTableSize(maxDynamicTableSize);
+  }
+
+  /**
+   * Sets the maximum header block fragment size of the connections that are opened afterwards.
+   */
+  @IntegerAttribute(
+      attributeId = Http2cConnectionFactoryFactoryConstants.ATTR_MAX_HEADER_BLOCK_FRAGMENT,
+      defaultValue = Http2cConnectionFactoryFactoryConstants.DEFAULT_MAX_HEADER_BLOCK_FRAGMENT,
+      dynamic = true, priority = PriorityConstants.PRIORITY_05,
+      label = "Max. header block fragment",
+      description = "The maximum size of a header block fragment in bytes. Bigger header blocks "
+          + "are split into continuation frames. Zero means no limit.")
+  public void setMaxHeaderBlockFragment(final int maxHeaderBlockFragment) {
+    settings.setMaxHeaderBlockFragment(maxHeaderBlockFragment);
+  }
+
+  @IntegerAttribute(attributeId = Http2cConnectionFactoryFactoryConstants.ATTR_OUTPUT_BUFFER_SIZE,
+      defaultValue = Http2cConnectionFactoryFactoryConstants.DEFAULT_OUTPUT_BUFFER_SIZE,
+      priority = PriorityConstants.PRIORITY_07, label = "Output buffer size",
+      description = "The size of the buffer of each stream into which response content is "
+          + "aggregated before being sent to the client.")
+  public void setOutputBufferSize(final int outputBufferSize) {
+    settings.setOutputBufferSize(outputBufferSize);
+  }
+
+  @IntegerAttribute(
+      attributeId = Http2cConnectionFactoryFactoryConstants.ATTR_REQUEST_HEADER_SIZE,
+      defaultValue = Http2cConnectionFactoryFactoryConstants.DEFAULT_REQUEST_HEADER_SIZE,
+      priority = PriorityConstants.PRIORITY_08, label = "Request header size",
+      description = "The maximum size of the headers of a request in bytes.")
+  public void setRequestHeaderSize(final int requestHeaderSize) {
+    settings.setRequestHeaderSize(requestHeaderSize);
+  }
+
+  @IntegerAttribute(
+      attributeId = Http2cConnectionFactoryFactoryConstants.ATTR_RESPONSE_HEADER_SIZE,
+      defaultValue = Http2cConnectionFactoryFactoryConstants.DEFAULT_RESPONSE_HEADER_SIZE,
+      priority = PriorityConstants.PRIORITY_09, label = "Response header size",
+      description = "The maximum size of the headers of a response in bytes.")
+  public void setResponseHeaderSize(final int responseHeaderSize) {
+    settings.setResponseHeaderSize(responseHeaderSize);
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConfiguration.Customizer;
+
+/**
+ * Settings of the HTTP/2 connection factories that are shared by the components of the h2 and h2c
+ * connection factories. The dynamic settings are applied on the connection factories that were
+ * created before and they take effect on the connections that are opened afterwards.
+ *
+ * @param <F>
+ *          The type of the created connection factories.
+ */
+public class Http2ConnectionFactorySettings<F extends AbstractHTTP2ServerConnectionFactory> {
+
+  private final WeakHashMap<F, Boolean> activeConnectionFactories = new WeakHashMap<>();
+
+  private final Function<HttpConfiguration, F> connectionFactoryConstructor;
+
+  private Customizer[] customizers;
+
+  private int initialStreamSendWindow;
+
+  private int inputBufferSize;
+
+  private int maxConcurrentStreams;
+
+  private int maxDynamicTableSize;
+
+  private int maxHeaderBlockFragment;
+
+  private int outputBufferSize;
+
+  private int requestHeaderSize;
+
+  private int responseHeaderSize;
+
+  /**
+   * Constructor.
+   *
+   * @param connectionFactoryConstructor
+   *          Creates a connection factory with the passed {@link HttpConfiguration}.
+   */
+  public Http2ConnectionFactorySettings(
+      final Function<HttpConfiguration, F> connectionFactoryConstructor) {
+    this.connectionFactoryConstructor = connectionFactoryConstructor;
+  }
+
+  private synchronized Set<F> cloneActiveConnectionFactories() {
+    Set<F> result = null;
+    while (result == null) {
+      try {
+        result = new HashSet<>(activeConnectionFactories.keySet());
+      } catch (ConcurrentModificationException e) {
+        // Try again
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Creates a connection factory with the current settings.
+   *
+   * @return The new connection factory.
+   */
+  public synchronized F createConnectionFactory() {
+    HttpConfiguration httpConfiguration = new HttpConfiguration();
+    httpConfiguration.setCustomizers(Arrays.asList(customizers));
+    httpConfiguration.setOutputBufferSize(outputBufferSize);
+    httpConfiguration.setRequestHeaderSize(requestHeaderSize);
+    httpConfiguration.setResponseHeaderSize(responseHeaderSize);
+
+    F connectionFactory = connectionFactoryConstructor.apply(httpConfiguration);
+    connectionFactory.setInitialStreamSendWindow(initialStreamSendWindow);
+    connectionFactory.setInputBufferSize(inputBufferSize);
+    connectionFactory.setMaxConcurrentStreams(maxConcurrentStreams);
+    connectionFactory.setMaxDynamicTableSize(maxDynamicTableSize);
+    connectionFactory.setMaxHeaderBlockFragment(maxHeaderBlockFragment);
+
+    activeConnectionFactories.put(connectionFactory, Boolean.TRUE);
+    return connectionFactory;
+  }
+
+  public synchronized void setCustomizers(final Customizer[] customizers) {
+    this.customizers = customizers;
+  }
+
+  /**
+   * Sets the initial flow control window of the streams.
+   */
+  public synchronized void setInitialStreamSendWindow(final int initialStreamSendWindow) {
+    this.initialStreamSendWindow = initialStreamSendWindow;
+    for (F connectionFactory : cloneActiveConnectionFactories()) {
+      connectionFactory.setInitialStreamSendWindow(initialStreamSendWindow);
+    }
+  }
+
+  /**
+   * Sets the input buffer size of the connections.
+   */
+  public synchronized void setInputBufferSize(final int inputBufferSize) {
+    this.inputBufferSize = inputBufferSize;
+    for (F connectionFactory : cloneActiveConnectionFactories()) {
+      connectionFactory.setInputBufferSize(inputBufferSize);
+    }
+  }
+
+  /**
+   * Sets the maximum number of concurrent streams of the connections.
+   */
+  public synchronized void setMaxConcurrentStreams(final int maxConcurrentStreams) {
+    this.maxConcurrentStreams = maxConcurrentStreams;
+    for (F connectionFactory : cloneActiveConnectionFactories()) {
+      connectionFactory.setMaxConcurrentStreams(maxConcurrentStreams);
+    }
+  }
+
+  /**
+   * Sets the HPACK header table size of the connections.
+   */
+  public synchronized void setMaxDynamicTableSize(final int maxDynamicTableSize) {
+    this.maxDynamicTableSize = maxDynamicTableSize;
+    for (F connectionFactory : cloneActiveConnectionFactories()) {
+      connectionFactory.setMaxDynamicTableSize(maxDynamicTableSize);
+    }
+  }
+
+  /**
+   * Sets the maximum header block fragment size of the connections.
+   */
+  public synchronized void setMaxHeaderBlockFragment(final int maxHeaderBlockFragment) {
+    this.maxHeaderBlockFragment = maxHeaderBlockFragment;
+    for (F connectionFactory : cloneActiveConnectionFactories()) {
+      connectionFactory.setMaxHeaderBlockFragment(maxHeaderBlockFragment);
+    }
+  }
+
+  public synchronized void setOutputBufferSize(final int outputBufferSize) {
+    this.outputBufferSize = outputBufferSize;
+  }
+
+  public synchronized void setRequestHeaderSize(final int requestHeaderSize) {
+    this.requestHeaderSize = requestHeaderSize;
+  }
+
+  public synchronized void setResponseHeaderSize(final int responseHeaderSize) {
+    this.responseHeaderSize = responseHeaderSize;
+  }
+}
@@ -15,25 +15,29 @@
  */
 package org.everit.jetty.server.component.ecm.internal;
 
-import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConfiguration.Customizer;
 import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.everit.jetty.server.component.ecm.HttpConfigurationStatistics;
 import org.everit.jetty.server.component.ecm.HttpConnectionFactoryFactoryConstants;
 import org.everit.jetty.server.component.ecm.PriorityConstants;
+import org.everit.osgi.ecm.annotation.Activate;
 import org.everit.osgi.ecm.annotation.Component;
 import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Deactivate;
 import org.everit.osgi.ecm.annotation.Service;
 import org.everit.osgi.ecm.annotation.ServiceRef;
 import org.everit.osgi.ecm.annotation.Update;
 import org.everit.osgi.ecm.annotation.attribute.BooleanAttribute;
 import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
 import org.everit.osgi.ecm.extender.ECMExtenderConstants;
@@ -58,19 +62,27 @@ import aQute.bnd.annotation.headers.ProvideCapability;
         description = "Optional description for the instantiated HttpConnectionFactory Factory.") })
 
 @Service
-public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryFactory {
+public class HttpConnectionFactoryFactoryComponent
+    implements ConnectionFactoryFactory, HttpConfigurationStatistics {
 
   private final WeakHashMap<CustomHttpConnectionFactory, Boolean> activeConnectionFactories =
       new WeakHashMap<>(); // CS_DISABLE_LINE_LENGTH
 
-  private boolean closeAllEndpointsAfterDynamicUpdate = false;
-
-  private Customizer[] customizers;
+  private final CustomizerChain customizerChain = new CustomizerChain();
 
   private boolean delayDispatchUntilContent = false;
 
+  private long drainTimeout;
+
+  private final EndPointDrainer endPointDrainer =
+      new EndPointDrainer("HttpConnectionFactory-endpoint-drainer");
+
   private int headerCacheSize;
 
+  private boolean httpConfigurationChanged = false;
+
+  private final AtomicLong httpConfigurationGeneration = new AtomicLong();
+
   private int inputBufferSize;
 
   private Integer outputAggregationSize;
@@ -91,20 +103,6 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
 
   private boolean sendXPoweredBy;
 
-  private Set<HttpConnectionFactory> cloneActiveHttpConnectionFactories() {
-    Set<CustomHttpConnectionFactory> connectionFactories =
-        cloneReferencedConnectionFactories();
-
-    Set<HttpConnectionFactory> result = new HashSet<HttpConnectionFactory>();
-
-    for (CustomHttpConnectionFactory customConnectionFactory : connectionFactories) {
-      result.add(customConnectionFactory);
-    }
-
-    return result;
-
-  }
-
   private synchronized Set<CustomHttpConnectionFactory> cloneReferencedConnectionFactories() {
     Set<CustomHttpConnectionFactory> result = null;
     while (result == null) {
@@ -117,11 +115,31 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
     return result;
   }
 
+  /**
+   * Resets the change flag as the attributes were set before any connection factory was created.
+   */
+  @Activate
+  public void activate() {
+    httpConfigurationChanged = false;
+  }
+
   @Override
   public synchronized ConnectionFactory createConnectionFactory(final String nextProtocol) {
+    CustomHttpConnectionFactory httpConnectionFactory = new CustomHttpConnectionFactory(
+        createHttpConfiguration());
+    httpConnectionFactory.setInputBufferSize(inputBufferSize);
+
+    activeConnectionFactories.put(httpConnectionFactory, true);
+    return httpConnectionFactory;
+  }
+
+  /**
+   * Creates a new {@link HttpConfiguration} instance with all of the current settings.
+   */
+  private HttpConfiguration createHttpConfiguration() {
     HttpConfiguration httpConfiguration = new HttpConfiguration();
     httpConfiguration.setDelayDispatchUntilContent(delayDispatchUntilContent);
-    httpConfiguration.setCustomizers(Arrays.asList(customizers));
+    httpConfiguration.addCustomizer(customizerChain);
     httpConfiguration.setHeaderCacheSize(headerCacheSize);
 
     httpConfiguration.setOutputBufferSize(outputBufferSize);
@@ -137,17 +155,26 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
     httpConfiguration.setSendDateHeader(sendDateHeader);
     httpConfiguration.setSendServerVersion(sendServerVersion);
     httpConfiguration.setSendXPoweredBy(sendXPoweredBy);
+    return httpConfiguration;
+  }
 
-    CustomHttpConnectionFactory httpConnectionFactory = new CustomHttpConnectionFactory(
-        httpConfiguration);
-    httpConnectionFactory.setInputBufferSize(inputBufferSize);
+  /**
+   * Stops the scheduler of the endpoint drain timeouts.
+   */
+  @Deactivate
+  public void deactivate() {
+    endPointDrainer.shutdown();
+  }
 
-    activeConnectionFactories.put(httpConnectionFactory, true);
-    return httpConnectionFactory;
+  @Override
+  public long getHttpConfigurationGeneration() {
+    return httpConfigurationGeneration.get();
   }
 
   /**
-   * Updates the customizers on the component and all connection factories dynamically.
+   * Replaces the customizers in place. Every {@link HttpConfiguration} of the component invokes
+   * the same {@link CustomizerChain}, so the open connections use the new customizers from their
+   * next request and they are not drained.
    **/
   @ServiceRef(referenceId = HttpConnectionFactoryFactoryConstants.ATTR_CUSTOMIZERS,
       optional = true, dynamic = true, attributePriority = PriorityConstants.PRIORITY_01,
@@ -156,15 +183,9 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
           + "used to interpret optional headers (eg ForwardedRequestCustomizer) or optional "
           + "protocol semantics (eg SecureRequestCustomizer).")
   public synchronized void setCustomizers(final Customizer[] customizers) {
-    this.customizers = customizers;
-    for (HttpConnectionFactory httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.getHttpConfiguration().setCustomizers(Arrays.asList(customizers));
-    }
+    customizerChain.setCustomizers(customizers);
   }
 
-  /**
-   * Updates delayDispatchUntilContent on the component and all active connection factories.
-   */
   @BooleanAttribute(
       attributeId = HttpConnectionFactoryFactoryConstants.ATTR_DELAY_DISPATCH_UNTIL_CONTENT,
       defaultValue = false, dynamic = true, priority = PriorityConstants.PRIORITY_13,
@@ -172,43 +193,37 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
       description = "If true, delay the application dispatch until content is available")
   public synchronized void setDelayDispatchUntilContent(final boolean delayDispatchUntilContent) {
     this.delayDispatchUntilContent = delayDispatchUntilContent;
-    for (HttpConnectionFactory httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.getHttpConfiguration().setDelayDispatchUntilContent(
-          delayDispatchUntilContent);
-    }
-    closeAllEndpointsAfterDynamicUpdate = true;
+    httpConfigurationChanged = true;
+  }
+
+  @LongAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_DRAIN_TIMEOUT,
+      defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_DRAIN_TIMEOUT, dynamic = true,
+      priority = PriorityConstants.PRIORITY_14, label = "Drain timeout (ms)",
+      description = "In case a dynamic update needs the existing connections to be closed and "
+          + "this value is greater than zero, only the idle connections are closed immediately. "
+          + "Busy connections are closed after their current response or after this time in "
+          + "milliseconds, whichever comes first. Zero means that every connection is closed "
+          + "immediately.")
+  public void setDrainTimeout(final long drainTimeout) {
+    this.drainTimeout = drainTimeout;
   }
 
-  /**
-   * Updates header cache size on component and all created connection factory.
-   */
   @IntegerAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_HEADER_CACHE_SIZE,
       defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_HEADER_CACHE_SIZE,
       dynamic = true, priority = PriorityConstants.PRIORITY_10, label = "Header cache size",
       description = "The maximum allowed size in bytes for a HTTP header field cache.")
   public void setHeaderCacheSize(final int headerCacheSize) {
     this.headerCacheSize = headerCacheSize;
-    for (HttpConnectionFactory httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.getHttpConfiguration().setHeaderCacheSize(headerCacheSize);
-    }
-    closeAllEndpointsAfterDynamicUpdate = true;
+    httpConfigurationChanged = true;
   }
 
-  /**
-   * Sets input buffer size on component and calls
-   * {@link HttpConnectionFactory#setInputBufferSize(int)} on every generated
-   * {@link HttpConnectionFactory}.
-   */
   @IntegerAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_INPUT_BUFFER_SIZE,
       defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_INPUT_BUFFER_SIZE,
       dynamic = true, priority = PriorityConstants.PRIORITY_06, label = "Input buffer size",
       description = "Size of input buffer of the created connections")
   public void setInputBufferSize(final int inputBufferSize) {
     this.inputBufferSize = inputBufferSize;
-    for (HttpConnectionFactory httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.setInputBufferSize(inputBufferSize);
-    }
-    closeAllEndpointsAfterDynamicUpdate = true;
+    httpConfigurationChanged = true;
   }
 
   @IntegerAttribute(
@@ -222,6 +237,7 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
           + "of this property is \"output buffer size / 4\".")
   public void setOutputAggregationSize(final Integer outputAggregationSize) {
     this.outputAggregationSize = outputAggregationSize;
+    httpConfigurationChanged = true;
   }
 
   @IntegerAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_OUTPUT_BUFFER_SIZE,
@@ -233,11 +249,9 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
           + "induce some latency before a client starts processing the content.")
   public void setOutputBufferSize(final int outputBufferSize) {
     this.outputBufferSize = outputBufferSize;
+    httpConfigurationChanged = true;
   }
 
-  /**
-   * Sets requestHeaderSize on component and all already created connection factories.
-   */
   @IntegerAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_REQUEST_HEADER_SIZE,
       defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_REQUEST_HEADER_SIZE,
       dynamic = true, priority = PriorityConstants.PRIORITY_05, label = "Request header size",
@@ -247,15 +261,9 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
           + "service attacks.")
   public synchronized void setRequestHeaderSize(final int requestHeaderSize) {
     this.requestHeaderSize = requestHeaderSize;
-    for (HttpConnectionFactory httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.getHttpConfiguration().setRequestHeaderSize(requestHeaderSize);
-    }
-    closeAllEndpointsAfterDynamicUpdate = true;
+    httpConfigurationChanged = true;
   }
 
-  /**
-   * Sets responseHeaderSize on component and all already created connection factories.
-   */
   @IntegerAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_RESPONSE_HEADER_SIZE,
       defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_RESPONSE_HEADER_SIZE,
       dynamic = true, priority = PriorityConstants.PRIORITY_07, label = "Response header size",
@@ -264,108 +272,73 @@ public class HttpConnectionFactoryFactoryComponent implements ConnectionFactoryF
           + "headers will also consume more memory.")
   public synchronized void setResponseHeaderSize(final int responseHeaderSize) {
     this.responseHeaderSize = responseHeaderSize;
-    for (HttpConnectionFactory httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.getHttpConfiguration().setResponseHeaderSize(responseHeaderSize);
-    }
-    closeAllEndpointsAfterDynamicUpdate = true;
+    httpConfigurationChanged = true;
   }
 
-  /**
-   * Sets securePort an component and all already created connection factories.
-   */
   @IntegerAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_SECURE_PORT,
       defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_SECURE_PORT, dynamic = true,
       priority = PriorityConstants.PRIORITY_12, label = "Secure port",
       description = "The TCP/IP port used for CONFIDENTIAL and INTEGRAL redirections.")
   public synchronized void setSecurePort(final int securePort) {
     this.securePort = securePort;
-    for (HttpConnectionFactory httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.getHttpConfiguration().setSecurePort(securePort);
-    }
-    closeAllEndpointsAfterDynamicUpdate = true;
+    httpConfigurationChanged = true;
   }
 
-  /**
-   * Sets secureScheme an component and all already created connection factories.
-   */
   @StringAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_SECURE_SCHEME,
       defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_SECURE_SCHEME, dynamic = true,
       priority = PriorityConstants.PRIORITY_11, label = "Secure scheme",
       description = "The URI scheme used for CONFIDENTIAL and INTEGRAL redirections.")
   public synchronized void setSecureScheme(final String secureScheme) {
     this.secureScheme = secureScheme;
-    for (HttpConnectionFactory httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.getHttpConfiguration().setSecureScheme(secureScheme);
-    }
-    closeAllEndpointsAfterDynamicUpdate = true;
+    httpConfigurationChanged = true;
   }
 
-  /**
-   * Sets sendDateHeader an component and all already created connection factories.
-   */
   @BooleanAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_SEND_DATE_HEADER,
       defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_SEND_DATE_HEADER, dynamic = true,
       priority = PriorityConstants.PRIORITY_02, label = "Send date header", description = "")
   public synchronized void setSendDateHeader(final boolean sendDateHeader) {
     this.sendDateHeader = sendDateHeader;
-    for (HttpConnectionFactory httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.getHttpConfiguration().setSendDateHeader(sendDateHeader);
-    }
-    closeAllEndpointsAfterDynamicUpdate = true;
+    httpConfigurationChanged = true;
   }
 
-  /**
-   * Sets the sendServerVersion flag on the component and all referenced connections.
-   */
   @BooleanAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_SEND_SERVER_VERSION,
       defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_SEND_SERVER_VERSION,
       dynamic = true, priority = PriorityConstants.PRIORITY_03, label = "Send server version",
       description = "")
   public void setSendServerVersion(final boolean sendServerVersion) {
     this.sendServerVersion = sendServerVersion;
-    for (HttpConnectionFactory httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.getHttpConfiguration().setSendServerVersion(sendServerVersion);
-    }
-    closeAllEndpointsAfterDynamicUpdate = true;
+    httpConfigurationChanged = true;
   }
 
-  /**
-   * Sets the sendServerVersion flag on the component and all referenced connections.
-   */
   @BooleanAttribute(attributeId = HttpConnectionFactoryFactoryConstants.ATTR_SEND_X_POWERED_BY,
       defaultValue = HttpConnectionFactoryFactoryConstants.DEFAULT_SEND_X_POWERED_BY,
       dynamic = true, priority = PriorityConstants.PRIORITY_04, label = "Send x-powered-by",
       description = "")
   public void setSendXPoweredBy(final boolean sendXPoweredBy) {
     this.sendXPoweredBy = sendXPoweredBy;
-    for (HttpConnectionFactory httpConnectionFactory : cloneActiveHttpConnectionFactories()) {
-      httpConnectionFactory.getHttpConfiguration().setSendXPoweredBy(sendXPoweredBy);
-    }
-    closeAllEndpointsAfterDynamicUpdate = true;
+    httpConfigurationChanged = true;
   }
 
   /**
-   * Updates the outputBufferSize and outputAggregationSize on all active connection factories.
+   * Publishes a new {@link HttpConfiguration} generation with all of the current settings on every
+   * active connection factory if any setting changed. New connections use the new generation,
+   * while the existing connections are closed or drained, so they are opened again with the new
+   * settings.
    */
   @Update
   public synchronized void update() {
-    boolean closeAllEndpoints = closeAllEndpointsAfterDynamicUpdate;
-    for (CustomHttpConnectionFactory connectionFactory : cloneReferencedConnectionFactories()) {
-      HttpConfiguration httpConfiguration = connectionFactory.getHttpConfiguration();
-      if (httpConfiguration.getOutputBufferSize() != outputBufferSize) {
-        httpConfiguration.setOutputBufferSize(outputBufferSize);
-        closeAllEndpoints = true;
-      }
-      if ((outputAggregationSize != null)
-          && (httpConfiguration.getOutputAggregationSize() != outputAggregationSize.intValue())) {
-        httpConfiguration.setOutputAggregationSize(outputAggregationSize);
-        closeAllEndpoints = true;
-      }
-      if (closeAllEndpoints) {
-        connectionFactory.closeReferencedEndpoints();
-      }
+    if (!httpConfigurationChanged) {
+      return;
+    }
+
+    Set<CustomHttpConnectionFactory> connectionFactories = cloneReferencedConnectionFactories();
+    for (CustomHttpConnectionFactory connectionFactory : connectionFactories) {
+      connectionFactory.setInputBufferSize(inputBufferSize);
+      connectionFactory.updateHttpConfiguration(createHttpConfiguration());
     }
+    httpConfigurationGeneration.incrementAndGet();
+    endPointDrainer.drain(connectionFactories, drainTimeout);
 
-    closeAllEndpointsAfterDynamicUpdate = false;
+    httpConfigurationChanged = false;
   }
 }
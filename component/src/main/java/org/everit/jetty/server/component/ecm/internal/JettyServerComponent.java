@@ -15,28 +15,46 @@
  */
 package org.everit.jetty.server.component.ecm.internal;
 
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Generated;
 
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.NetworkConnector;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.MultiException;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.everit.jetty.server.component.ecm.JettyServerConstants;
 import org.everit.jetty.server.component.ecm.JettyServerException;
+import org.everit.jetty.server.component.ecm.LowResourceMonitorFactory;
 import org.everit.jetty.server.component.ecm.PriorityConstants;
+import org.everit.jetty.server.component.ecm.ThreadPoolFactory;
+import org.everit.jetty.server.component.ecm.internal.ParallelLifeCycleStarter.StartResult;
 import org.everit.osgi.ecm.annotation.Activate;
 import org.everit.osgi.ecm.annotation.Component;
 import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
 import org.everit.osgi.ecm.annotation.Deactivate;
 import org.everit.osgi.ecm.annotation.ReferenceConfigurationType;
 import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
 import org.everit.osgi.ecm.component.ComponentContext;
@@ -67,6 +85,8 @@ import aQute.bnd.annotation.headers.ProvideCapability;
         description = "Optional description for the instantiated Jetty server.") })
 public class JettyServerComponent {
 
+  private static final Logger LOG = Log.getLogger(JettyServerComponent.class);
+
   /**
    * Helper class to identify connector references with their settings in hash based collections.
    */
@@ -140,6 +160,15 @@ public class JettyServerComponent {
       return result;
     }
 
+    /**
+     * Checks whether the other key belongs to a connector of the same factory service that listens
+     * on the same host and port, regardless of the id of the clause.
+     */
+    public boolean isSameEndpoint(final ConnectorFactoryKey other) {
+      return (port == other.port) && Objects.equals(host, other.host)
+          && Objects.equals(serviceReference, other.serviceReference);
+    }
+
   }
 
   /**
@@ -218,8 +247,16 @@ public class JettyServerComponent {
 
   }
 
+  private int connectorStartThreads;
+
   private CustomContextHandlerCollection contextHandlerCollection;
 
+  private int contextStartThreads;
+
+  private long contextStartTimeout;
+
+  private LowResourceMonitorFactory lowResourceMonitorFactory;
+
   private ServiceHolder<NetworkConnectorFactory>[] networkConnectorFactories;
 
   private final HashMap<ConnectorFactoryKey, NetworkConnector> registeredConnectors =
@@ -234,25 +271,50 @@ public class JettyServerComponent {
 
   private ServiceHolder<ServletContextHandlerFactory>[] servletContextHandlerFactories;
 
+  private boolean skipFailedConnectors;
+
+  private DrainStatisticsHandler statisticsHandler;
+
+  private long stopTimeout;
+
+  private ThreadPoolFactory threadPoolFactory;
+
   /**
-   * Activate method of the component that sets up and starts a server.
+   * Activate method of the component that sets up and starts a server. The servlet contexts are
+   * started after the server, so they can be started in parallel, and the connectors are added
+   * only when the contexts are available.
    */
   @Activate
   public void activate(final ComponentContext<JettyServerComponent> componentContext) {
-    server = new Server();
-    contextHandlerCollection = new CustomContextHandlerCollection();
+    if (threadPoolFactory != null) {
+      ThreadPool threadPool = threadPoolFactory.createThreadPool();
+      server = new Server(threadPool);
+    } else {
+      server = new Server();
+    }
 
-    server.setHandler(contextHandlerCollection);
+    if (lowResourceMonitorFactory != null) {
+      server.addBean(lowResourceMonitorFactory.createLowResourceMonitor(server));
+    }
 
-    updateConnectorFactoriesOnServer();
+    contextHandlerCollection = new CustomContextHandlerCollection();
 
-    updateServletContextHandlerFactoriesOnServer();
+    if (stopTimeout > 0) {
+      statisticsHandler = new DrainStatisticsHandler();
+      statisticsHandler.setHandler(contextHandlerCollection);
+      server.setHandler(statisticsHandler);
+      server.setStopTimeout(stopTimeout);
+    } else {
+      server.setHandler(contextHandlerCollection);
+    }
 
     Dictionary<String, Object> serviceProps = new Hashtable<String, Object>(
         componentContext.getProperties());
 
     try {
       server.start();
+      updateServletContextHandlerFactoriesOnServer();
+      updateConnectorFactoriesOnServer();
     } catch (Exception e) {
       fail(e);
       return;
@@ -262,6 +324,7 @@ public class JettyServerComponent {
 
   private void addNewConnectors(
       final Map<ConnectorFactoryKey, NetworkConnectorFactory> newConnectors) {
+    Map<NetworkConnector, ConnectorFactoryKey> connectorsToStart = new LinkedHashMap<>();
     Set<Entry<ConnectorFactoryKey, NetworkConnectorFactory>> entrySet = newConnectors.entrySet();
     for (Entry<ConnectorFactoryKey, NetworkConnectorFactory> entry : entrySet) {
       NetworkConnectorFactory factory = entry.getValue();
@@ -272,20 +335,92 @@ public class JettyServerComponent {
 
       server.addConnector(connector);
       if (server.isStarted() && !connector.isStarted()) {
-        try {
-          connector.start();
-          server.manage(connector);
-        } catch (Exception e) {
-          fail(e);
-          return;
-        }
+        connectorsToStart.put(connector, factoryParams);
+      } else {
+        registeredConnectors.put(factoryParams, connector);
+      }
+    }
+
+    IllegalStateException capacityException = checkThreadCapacity();
+    if (capacityException != null) {
+      for (NetworkConnector connector : connectorsToStart.keySet()) {
+        server.removeConnector(connector);
+      }
+      fail(capacityException);
+    }
+
+    List<StartResult<NetworkConnector>> startResults = new ParallelLifeCycleStarter(
+        connectorStartThreads, 0, "jetty-connector-start").startAll(connectorsToStart.keySet());
+
+    JettyServerException startException = null;
+    for (StartResult<NetworkConnector> startResult : startResults) {
+      NetworkConnector connector = startResult.lifeCycle;
+      if (startResult.isSucceeded()) {
+        server.manage(connector);
+        registeredConnectors.put(connectorsToStart.get(connector), connector);
+        LOG.info("Connector {} bound to {}:{} in {} ms", connector.getName(), connector.getHost(),
+            connector.getLocalPort(), startResult.durationMillis);
+      } else if (skipFailedConnectors) {
+        // The connector is not registered, so it is created again at the next reconfiguration
+        server.removeConnector(connector);
+        LOG.warn("Skipping connector " + connector + " as it could not be started",
+            startResult.failure);
+      } else if (startException == null) {
+        startException = new JettyServerException("Could not start connector " + connector,
+            startResult.failure);
+      } else {
+        startException.addSuppressed(startResult.failure);
+      }
+    }
+
+    if (startException != null) {
+      fail(startException);
+    }
+  }
+
+  /**
+   * Checks whether the thread pool of the server has enough threads for the acceptors and
+   * selectors of all connectors. The server does the same check when it starts, but the
+   * connectors are added to the already started server.
+   *
+   * @return The exception describing the missing threads or <code>null</code> if the thread pool
+   *         is large enough.
+   */
+  private IllegalStateException checkThreadCapacity() {
+    ThreadPool threadPool = server.getThreadPool();
+    if (!(threadPool instanceof ThreadPool.SizedThreadPool)) {
+      return null;
+    }
+    int maxThreads = ((ThreadPool.SizedThreadPool) threadPool).getMaxThreads();
+    if (maxThreads <= 0) {
+      return null;
+    }
+
+    int acceptors = 0;
+    int selectors = 0;
+    for (Connector connector : server.getConnectors()) {
+      if (connector instanceof AbstractConnector) {
+        acceptors += ((AbstractConnector) connector).getAcceptors();
+      }
+      if (connector instanceof ServerConnector) {
+        selectors += ((ServerConnector) connector).getSelectorManager().getSelectorCount();
       }
-      registeredConnectors.put(factoryParams, connector);
     }
+
+    int needed = 1 + acceptors + selectors;
+    if (needed <= maxThreads) {
+      return null;
+    }
+    return new IllegalStateException(String.format(
+        "Insufficient threads: max=%d < needed(acceptors=%d + selectors=%d + request=1)",
+        maxThreads, acceptors, selectors));
   }
 
   /**
-   * Deactivate method that stops the server if it is running.
+   * Deactivate method that stops the server if it is running. In case a stop timeout is
+   * configured, the connectors stop accepting new connections first and the active requests can
+   * finish within the timeout. Requests that are still active after the timeout are aborted and
+   * logged, but they do not make the deactivation fail.
    */
   @Deactivate
   public void deactivate() {
@@ -294,11 +429,23 @@ public class JettyServerComponent {
     }
 
     if ((server != null) && !server.isStopped()) {
+      Throwable stopFailure = null;
       try {
         server.stop();
-        server.destroy();
       } catch (Exception e) {
-        throw new JettyServerException(e);
+        stopFailure = removeShutdownTimeouts(e);
+      }
+      logDrainedRequests();
+      try {
+        server.destroy();
+      } catch (RuntimeException e) {
+        if (stopFailure == null) {
+          throw e;
+        }
+        stopFailure.addSuppressed(e);
+      }
+      if (stopFailure != null) {
+        throw new JettyServerException(stopFailure);
       }
     }
 
@@ -327,6 +474,49 @@ public class JettyServerComponent {
     throw new JettyServerException(e);
   }
 
+  private void logDrainedRequests() {
+    if (statisticsHandler == null) {
+      return;
+    }
+    int abortedRequests = statisticsHandler.getAbortedRequests();
+    if (abortedRequests > 0) {
+      LOG.warn("Server stopped: {} request(s) drained, {} request(s) aborted after the stop "
+          + "timeout of {} ms", statisticsHandler.getDrainedRequests(), abortedRequests,
+          stopTimeout);
+    } else {
+      LOG.info("Server stopped: {} request(s) drained", statisticsHandler.getDrainedRequests());
+    }
+  }
+
+  /**
+   * Removes the {@link TimeoutException}s from a stop failure. {@link Server#doStop()} reports the
+   * graceful shutdown futures that are not done within the stop timeout this way, but the requests
+   * that were aborted are logged by {@link #logDrainedRequests()}.
+   *
+   * @return The rest of the failure or <code>null</code> if only the shutdown timed out.
+   */
+  private Throwable removeShutdownTimeouts(final Exception stopException) {
+    if (stopException instanceof TimeoutException) {
+      return null;
+    }
+    if (!(stopException instanceof MultiException)) {
+      return stopException;
+    }
+    MultiException result = new MultiException();
+    for (Throwable throwable : ((MultiException) stopException).getThrowables()) {
+      if (!(throwable instanceof TimeoutException)) {
+        result.add(throwable);
+      }
+    }
+    if (result.size() == 0) {
+      return null;
+    }
+    if (result.size() == 1) {
+      return result.getThrowable(0);
+    }
+    return result;
+  }
+
   private String resolveContextPath(final ServiceHolder<ServletContextHandlerFactory> holder) {
     Map<String, Object> attributes = holder.getAttributes();
     Object contextPath = attributes.get(JettyServerConstants.CONTEXT_CLAUSE_ATTR_CONTEXTPATH);
@@ -363,17 +553,125 @@ public class JettyServerComponent {
   }
 
   private void setAndManageNewHandlers(final ServletContextHandler[] newHandlers) {
-    contextHandlerCollection.setHandlers(newHandlers);
+    List<ServletContextHandler> handlersToStart = new ArrayList<>();
+    if (server.isStarted()) {
+      for (ServletContextHandler newHandler : newHandlers) {
+        if (!newHandler.isStarted()) {
+          handlersToStart.add(newHandler);
+        }
+      }
+    }
+
+    // Handlers are started before they are mapped, so no request reaches a starting context. The
+    // handlers that did not start in time are stopped by the starter when their start finishes.
+    List<StartResult<ServletContextHandler>> startResults = new ParallelLifeCycleStarter(
+        contextStartThreads, contextStartTimeout, "jetty-context-start").startAll(handlersToStart);
+
+    Set<ServletContextHandler> failedHandlers = new HashSet<>();
+    for (StartResult<ServletContextHandler> startResult : startResults) {
+      if (!startResult.isSucceeded()) {
+        failedHandlers.add(startResult.lifeCycle);
+      }
+    }
+
+    List<ServletContextHandler> handlersToMap = new ArrayList<>(newHandlers.length);
     for (ServletContextHandler newHandler : newHandlers) {
-      if (!newHandler.isStarted() && server.isStarted()) {
-        try {
-          newHandler.start();
-          contextHandlerCollection.manage(newHandler);
-        } catch (Exception e) {
-          throw new JettyServerException(e);
+      if (!failedHandlers.contains(newHandler)) {
+        handlersToMap.add(newHandler);
+      }
+    }
+    contextHandlerCollection
+        .setHandlers(handlersToMap.toArray(new ServletContextHandler[handlersToMap.size()]));
+
+    // Failed handlers are created again at the next update of the servlet context references
+    registeredServletContexts.values()
+        .removeIf((contextWithPath) -> failedHandlers.contains(contextWithPath.handler));
+
+    JettyServerException startException = null;
+    for (StartResult<ServletContextHandler> startResult : startResults) {
+      ServletContextHandler handler = startResult.lifeCycle;
+      if (startResult.isSucceeded()) {
+        contextHandlerCollection.manage(handler);
+        LOG.debug("Started servlet context {} in {} ms", handler.getContextPath(),
+            startResult.durationMillis);
+      } else {
+        LOG.warn("Could not start servlet context " + handler.getContextPath(),
+            startResult.failure);
+        if (startException == null) {
+          startException = new JettyServerException("Could not start servlet context "
+              + handler.getContextPath(), startResult.failure);
+        } else {
+          startException.addSuppressed(startResult.failure);
         }
       }
     }
+
+    if (startException != null) {
+      throw startException;
+    }
+  }
+
+  /**
+   * Sets what should happen if a connector cannot be started.
+   */
+  @StringAttribute(attributeId = JettyServerConstants.ATTR_CONNECTOR_FAILURE_POLICY,
+      defaultValue = JettyServerConstants.DEFAULT_CONNECTOR_FAILURE_POLICY,
+      priority = PriorityConstants.PRIORITY_08, label = "Connector failure policy",
+      description = "What should happen if a connector cannot be started (e.g. the port is "
+          + "already in use). With \"fail\", the whole server is stopped. With \"skip\", the "
+          + "server runs without the failed connector and the connector is created again at the "
+          + "next change of the connector references.")
+  public void setConnectorFailurePolicy(final String connectorFailurePolicy) {
+    String normalizedPolicy = (connectorFailurePolicy == null) ? ""
+        : connectorFailurePolicy.trim();
+    if (JettyServerConstants.CONNECTOR_FAILURE_POLICY_FAIL.equals(normalizedPolicy)) {
+      skipFailedConnectors = false;
+    } else if (JettyServerConstants.CONNECTOR_FAILURE_POLICY_SKIP.equals(normalizedPolicy)) {
+      skipFailedConnectors = true;
+    } else {
+      throw new ConfigurationException("Invalid value for '"
+          + JettyServerConstants.ATTR_CONNECTOR_FAILURE_POLICY + "': " + connectorFailurePolicy);
+    }
+  }
+
+  @IntegerAttribute(attributeId = JettyServerConstants.ATTR_CONNECTOR_START_THREADS,
+      defaultValue = JettyServerConstants.DEFAULT_CONNECTOR_START_THREADS,
+      priority = PriorityConstants.PRIORITY_07, label = "Connector start threads",
+      description = "The maximum number of connectors that are started and bound at the same "
+          + "time. With the value 1, the connectors are started one after the other.")
+  public void setConnectorStartThreads(final int connectorStartThreads) {
+    this.connectorStartThreads = connectorStartThreads;
+  }
+
+  @IntegerAttribute(attributeId = JettyServerConstants.ATTR_CONTEXT_START_THREADS,
+      defaultValue = JettyServerConstants.DEFAULT_CONTEXT_START_THREADS,
+      priority = PriorityConstants.PRIORITY_05, label = "Context start threads",
+      description = "The maximum number of servlet contexts that are started at the same time. "
+          + "With the value 1, the contexts are started one after the other.")
+  public void setContextStartThreads(final int contextStartThreads) {
+    this.contextStartThreads = contextStartThreads;
+  }
+
+  @LongAttribute(attributeId = JettyServerConstants.ATTR_CONTEXT_START_TIMEOUT,
+      defaultValue = JettyServerConstants.DEFAULT_CONTEXT_START_TIMEOUT,
+      priority = PriorityConstants.PRIORITY_06, label = "Context start timeout (ms)",
+      description = "The time in milliseconds that the servlet contexts have to start within when "
+          + "they are started in parallel. Contexts that do not start in time are reported as "
+          + "failed, they are not mapped and they are stopped when their start finishes. Zero "
+          + "means no time limit.")
+  public void setContextStartTimeout(final long contextStartTimeout) {
+    this.contextStartTimeout = contextStartTimeout;
+  }
+
+  @ServiceRef(referenceId = JettyServerConstants.ATTR_LOW_RESOURCE_MONITOR_FACTORY,
+      optional = true, attributePriority = PriorityConstants.PRIORITY_04,
+      label = "LowResourceMonitor Factory (target)",
+      description = "Optional OSGi service filter of the factory that creates the monitor that "
+          + "protects the server against overload. In case it is not specified, the server is "
+          + "not monitored.")
+  public void setLowResourceMonitorFactory(
+      final LowResourceMonitorFactory lowResourceMonitorFactory) {
+    this.lowResourceMonitorFactory = lowResourceMonitorFactory;
   }
 
   @ServiceRef(referenceId = JettyServerConstants.ATTR_NETWORK_CONNECTOR_FACTORIES,
@@ -398,6 +696,54 @@ public class JettyServerComponent {
     updateServletContextAndHandleFailure(servletContextHandlerFactories);
   }
 
+  @LongAttribute(attributeId = JettyServerConstants.ATTR_STOP_TIMEOUT,
+      defaultValue = JettyServerConstants.DEFAULT_STOP_TIMEOUT,
+      priority = PriorityConstants.PRIORITY_09, label = "Stop timeout (ms)",
+      description = "In case the value is greater than zero, the server is stopped gracefully: "
+          + "the connectors stop accepting new connections and the active requests can finish "
+          + "within this time in milliseconds. Requests that are still running after the timeout "
+          + "are aborted. Zero means that the server is stopped immediately.")
+  public void setStopTimeout(final long stopTimeout) {
+    this.stopTimeout = stopTimeout;
+  }
+
+  @ServiceRef(referenceId = JettyServerConstants.ATTR_THREAD_POOL_FACTORY, optional = true,
+      attributePriority = PriorityConstants.PRIORITY_03, label = "ThreadPool Factory (target)",
+      description = "Optional OSGi service filter of the factory that creates the ThreadPool of the "
+          + "server. In case it is not specified, the default QueuedThreadPool of Jetty is used.")
+  public void setThreadPoolFactory(final ThreadPoolFactory threadPoolFactory) {
+    this.threadPoolFactory = threadPoolFactory;
+  }
+
+  /**
+   * Keeps the running connectors of the clauses that were only renamed, so their ports are not
+   * closed and bound again. A connector is taken over if the factory service, the host and the port
+   * of the new clause are the same.
+   */
+  private void takeOverRenamedConnectors(
+      final HashMap<ConnectorFactoryKey, NetworkConnector> connectorsToDelete,
+      final Map<ConnectorFactoryKey, NetworkConnectorFactory> newConnectors) {
+
+    Iterator<ConnectorFactoryKey> newKeyIterator = newConnectors.keySet().iterator();
+    while (newKeyIterator.hasNext()) {
+      ConnectorFactoryKey newKey = newKeyIterator.next();
+      ConnectorFactoryKey oldKey = null;
+      for (ConnectorFactoryKey connectorToDeleteKey : connectorsToDelete.keySet()) {
+        if (newKey.isSameEndpoint(connectorToDeleteKey)) {
+          oldKey = connectorToDeleteKey;
+          break;
+        }
+      }
+
+      if (oldKey != null) {
+        NetworkConnector connector = connectorsToDelete.remove(oldKey);
+        registeredConnectors.remove(oldKey);
+        registeredConnectors.put(newKey, connector);
+        newKeyIterator.remove();
+      }
+    }
+  }
+
   private synchronized void updateConnectorFactories(
       final ServiceHolder<NetworkConnectorFactory>[] pNetworkConnectorFactories) {
     networkConnectorFactories = pNetworkConnectorFactories;
@@ -407,6 +753,9 @@ public class JettyServerComponent {
   }
 
   private void updateConnectorFactoriesOnServer() {
+    server.setAttribute(JettyServerConstants.SERVER_ATTRIBUTE_CONNECTOR_COUNT,
+        networkConnectorFactories.length);
+
     @SuppressWarnings("unchecked")
     HashMap<ConnectorFactoryKey, NetworkConnector> connectorsToDelete =
         (HashMap<ConnectorFactoryKey, NetworkConnector>) registeredConnectors.clone();
@@ -429,6 +778,8 @@ public class JettyServerComponent {
 
     }
 
+    takeOverRenamedConnectors(connectorsToDelete, newConnectors);
+
     deleteConnectors(connectorsToDelete);
 
     addNewConnectors(newConnectors);
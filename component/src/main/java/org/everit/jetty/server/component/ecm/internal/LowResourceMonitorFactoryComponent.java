@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.eclipse.jetty.server.LowResourceMonitor;
+import org.eclipse.jetty.server.Server;
+import org.everit.jetty.server.component.ecm.LowResourceMonitorFactory;
+import org.everit.jetty.server.component.ecm.LowResourceMonitorFactoryConstants;
+import org.everit.jetty.server.component.ecm.PriorityConstants;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.attribute.BooleanAttribute;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ECMExtenderConstants;
+import org.osgi.framework.Constants;
+
+import aQute.bnd.annotation.headers.ProvideCapability;
+
+/**
+ * ECM based configurable component that creates {@link LowResourceMonitor} instances for Jetty
+ * servers.
+ */
+@Component(componentId = LowResourceMonitorFactoryConstants.SERVICE_FACTORY_PID,
+    configurationPolicy = ConfigurationPolicy.FACTORY,
+    label = "Everit Jetty LowResourceMonitor Factory",
+    description = "Component to protect Jetty servers against overload. When the thread pool is "
+        + "low on threads, or there are too many connections or the heap usage is too high, the "
+        + "idle timeout of the connections is lowered and the connectors stop accepting new "
+        + "connections until the load drops.")
+@ProvideCapability(ns = ECMExtenderConstants.CAPABILITY_NS_COMPONENT,
+    value = ECMExtenderConstants.CAPABILITY_ATTR_CLASS + "=${@class}")
+@StringAttributes({
+    @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
+        label = "Service description",
+        description = "Optional description for the instantiated LowResourceMonitor Factory.") })
+@Service
+public class LowResourceMonitorFactoryComponent implements LowResourceMonitorFactory {
+
+  private final WeakHashMap<CustomLowResourceMonitor, Boolean> activeMonitors =
+      new WeakHashMap<>();
+
+  private int lowResourcesIdleTimeout;
+
+  private int maxConnections;
+
+  private int maxLowResourcesTime;
+
+  private long maxMemory;
+
+  private boolean monitorThreads;
+
+  private boolean pauseAccepting;
+
+  private int period;
+
+  private synchronized Set<CustomLowResourceMonitor> cloneActiveMonitors() {
+    return new HashSet<>(activeMonitors.keySet());
+  }
+
+  @Override
+  public synchronized LowResourceMonitor createLowResourceMonitor(final Server server) {
+    CustomLowResourceMonitor monitor = new CustomLowResourceMonitor(server);
+    monitor.setLowResourcesIdleTimeout(lowResourcesIdleTimeout);
+    monitor.setMaxConnections(maxConnections);
+    monitor.setMaxLowResourcesTime(maxLowResourcesTime);
+    monitor.setMaxMemory(maxMemory);
+    monitor.setMonitorThreads(monitorThreads);
+    monitor.setPauseAccepting(pauseAccepting);
+    monitor.setPeriod(period);
+
+    activeMonitors.put(monitor, Boolean.TRUE);
+    return monitor;
+  }
+
+  /**
+   * Sets the low resources idle timeout on the component and all active monitors.
+   */
+  @IntegerAttribute(
+      attributeId = LowResourceMonitorFactoryConstants.ATTR_LOW_RESOURCES_IDLE_TIMEOUT,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_LOW_RESOURCES_IDLE_TIMEOUT,
+      dynamic = true, priority = PriorityConstants.PRIORITY_05,
+      label = "Low resources idle timeout",
+      description = "The idle timeout in milliseconds that is applied on all connections while "
+          + "the server is low on resources.")
+  public synchronized void setLowResourcesIdleTimeout(final int lowResourcesIdleTimeout) {
+    this.lowResourcesIdleTimeout = lowResourcesIdleTimeout;
+    for (CustomLowResourceMonitor monitor : cloneActiveMonitors()) {
+      monitor.setLowResourcesIdleTimeout(lowResourcesIdleTimeout);
+    }
+  }
+
+  /**
+   * Sets the maximum number of connections on the component and all active monitors.
+   */
+  @IntegerAttribute(attributeId = LowResourceMonitorFactoryConstants.ATTR_MAX_CONNECTIONS,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_MAX_CONNECTIONS, dynamic = true,
+      priority = PriorityConstants.PRIORITY_03, label = "Max. connections",
+      description = "The number of connections of all connectors of the server above which the "
+          + "server is considered to be low on resources. Zero means that the number of "
+          + "connections is not monitored.")
+  public synchronized void setMaxConnections(final int maxConnections) {
+    this.maxConnections = maxConnections;
+    for (CustomLowResourceMonitor monitor : cloneActiveMonitors()) {
+      monitor.setMaxConnections(maxConnections);
+    }
+  }
+
+  /**
+   * Sets the maximum low resources time on the component and all active monitors.
+   */
+  @IntegerAttribute(attributeId = LowResourceMonitorFactoryConstants.ATTR_MAX_LOW_RESOURCES_TIME,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_MAX_LOW_RESOURCES_TIME,
+      dynamic = true, priority = PriorityConstants.PRIORITY_06, label = "Max. low resources time",
+      description = "The time in milliseconds after which the low resources idle timeout is "
+          + "applied again on all connections in case the server is still low on resources. Zero "
+          + "means that the timeout is applied only once.")
+  public synchronized void setMaxLowResourcesTime(final int maxLowResourcesTime) {
+    this.maxLowResourcesTime = maxLowResourcesTime;
+    for (CustomLowResourceMonitor monitor : cloneActiveMonitors()) {
+      monitor.setMaxLowResourcesTime(maxLowResourcesTime);
+    }
+  }
+
+  /**
+   * Sets the maximum memory on the component and all active monitors.
+   */
+  @LongAttribute(attributeId = LowResourceMonitorFactoryConstants.ATTR_MAX_MEMORY,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_MAX_MEMORY, dynamic = true,
+      priority = PriorityConstants.PRIORITY_04, label = "Max. memory",
+      description = "The used heap memory in bytes above which the server is considered to be "
+          + "low on resources. Zero means that the memory usage is not monitored.")
+  public synchronized void setMaxMemory(final long maxMemory) {
+    this.maxMemory = maxMemory;
+    for (CustomLowResourceMonitor monitor : cloneActiveMonitors()) {
+      monitor.setMaxMemory(maxMemory);
+    }
+  }
+
+  /**
+   * Sets the thread monitoring flag on the component and all active monitors.
+   */
+  @BooleanAttribute(attributeId = LowResourceMonitorFactoryConstants.ATTR_MONITOR_THREADS,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_MONITOR_THREADS, dynamic = true,
+      priority = PriorityConstants.PRIORITY_02, label = "Monitor threads",
+      description = "Whether the server is considered to be low on resources when its thread "
+          + "pool is low on threads.")
+  public synchronized void setMonitorThreads(final boolean monitorThreads) {
+    this.monitorThreads = monitorThreads;
+    for (CustomLowResourceMonitor monitor : cloneActiveMonitors()) {
+      monitor.setMonitorThreads(monitorThreads);
+    }
+  }
+
+  /**
+   * Sets the pause accepting flag on the component and all active monitors.
+   */
+  @BooleanAttribute(attributeId = LowResourceMonitorFactoryConstants.ATTR_PAUSE_ACCEPTING,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_PAUSE_ACCEPTING, dynamic = true,
+      priority = PriorityConstants.PRIORITY_07, label = "Pause accepting",
+      description = "Whether the connectors stop accepting new connections while the server is "
+          + "low on resources. New connections wait in the accept queue of the operating system "
+          + "until the load drops. Only the connectors of the Server Connector Factory component "
+          + "support pausing.")
+  public synchronized void setPauseAccepting(final boolean pauseAccepting) {
+    this.pauseAccepting = pauseAccepting;
+    for (CustomLowResourceMonitor monitor : cloneActiveMonitors()) {
+      monitor.setPauseAccepting(pauseAccepting);
+    }
+  }
+
+  /**
+   * Sets the monitoring period on the component and all active monitors.
+   */
+  @IntegerAttribute(attributeId = LowResourceMonitorFactoryConstants.ATTR_PERIOD,
+      defaultValue = LowResourceMonitorFactoryConstants.DEFAULT_PERIOD, dynamic = true,
+      priority = PriorityConstants.PRIORITY_01, label = "Period",
+      description = "The period in milliseconds between two checks of the resources.")
+  public synchronized void setPeriod(final int period) {
+    this.period = period;
+    for (CustomLowResourceMonitor monitor : cloneActiveMonitors()) {
+      monitor.setPeriod(period);
+    }
+  }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Starts a set of independent {@link LifeCycle}s on a bounded number of threads and reports the
+ * outcome of each start separately.
+ */
+public class ParallelLifeCycleStarter {
+
+  private static final Logger LOG = Log.getLogger(ParallelLifeCycleStarter.class);
+
+  /**
+   * The outcome of starting one {@link LifeCycle}.
+   *
+   * @param <T>
+   *          The type of the started object.
+   */
+  public static final class StartResult<T extends LifeCycle> {
+
+    public final long durationMillis;
+
+    public final Throwable failure;
+
+    public final T lifeCycle;
+
+    StartResult(final T lifeCycle, final long durationMillis, final Throwable failure) {
+      this.lifeCycle = lifeCycle;
+      this.durationMillis = durationMillis;
+      this.failure = failure;
+    }
+
+    public boolean isSucceeded() {
+      return failure == null;
+    }
+  }
+
+  /**
+   * Starts one object on a starter thread. If the caller stopped waiting for the start, the
+   * object is stopped as soon as its start finished, so it does not keep running unmanaged.
+   */
+  private static final class StartTask<T extends LifeCycle> implements Callable<StartResult<T>> {
+
+    private final AtomicBoolean completedOrAbandoned = new AtomicBoolean();
+
+    private final T lifeCycle;
+
+    StartTask(final T lifeCycle) {
+      this.lifeCycle = lifeCycle;
+    }
+
+    /**
+     * Tells the task that nobody waits for its result anymore.
+     *
+     * @return <code>true</code> if the start has not finished yet and the object will be stopped
+     *         when it finishes, <code>false</code> if the result is already available.
+     */
+    boolean abandon() {
+      return completedOrAbandoned.compareAndSet(false, true);
+    }
+
+    @Override
+    public StartResult<T> call() {
+      StartResult<T> result = start(lifeCycle);
+      if (!completedOrAbandoned.compareAndSet(false, true)) {
+        try {
+          lifeCycle.stop();
+        } catch (Exception | Error e) {
+          LOG.warn("Could not stop " + lifeCycle + " after its start timed out", e);
+        }
+      }
+      return result;
+    }
+  }
+
+  private final int threadCount;
+
+  private final String threadNamePrefix;
+
+  private final long timeoutMillis;
+
+  /**
+   * Constructor.
+   *
+   * @param threadCount
+   *          The maximum number of objects that are started at the same time. In case the value is
+   *          less than two, the objects are started one after the other on the calling thread.
+   * @param timeoutMillis
+   *          The time in milliseconds that all of the objects have to start within. Zero or a
+   *          negative value means that there is no time limit.
+   * @param threadNamePrefix
+   *          The prefix of the names of the starter threads.
+   */
+  public ParallelLifeCycleStarter(final int threadCount, final long timeoutMillis,
+      final String threadNamePrefix) {
+    this.threadCount = threadCount;
+    this.timeoutMillis = timeoutMillis;
+    this.threadNamePrefix = threadNamePrefix;
+  }
+
+  private static <T extends LifeCycle> StartResult<T> start(final T lifeCycle) {
+    long startTime = System.nanoTime();
+    Throwable failure = null;
+    try {
+      lifeCycle.start();
+    } catch (Exception | Error e) {
+      failure = e;
+    }
+    return new StartResult<>(lifeCycle,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), failure);
+  }
+
+  /**
+   * Starts the objects and waits until each of them is started, failed or the timeout elapsed.
+   * Objects that did not start in time are reported with a {@link TimeoutException}. Their start is
+   * not interrupted, but they are stopped as soon as their start finishes.
+   *
+   * @param lifeCycles
+   *          The objects to start.
+   * @return The results in the same order as the objects were passed.
+   */
+  public <T extends LifeCycle> List<StartResult<T>> startAll(final Collection<T> lifeCycles) {
+    List<StartResult<T>> results = new ArrayList<>(lifeCycles.size());
+    if ((threadCount < 2) || (lifeCycles.size() < 2)) {
+      for (T lifeCycle : lifeCycles) {
+        results.add(start(lifeCycle));
+      }
+      return results;
+    }
+
+    AtomicInteger threadIndex = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(threadCount, lifeCycles.size()), (runnable) -> {
+          Thread thread = new Thread(runnable,
+              threadNamePrefix + "-" + threadIndex.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    try {
+      List<StartTask<T>> tasks = new ArrayList<>(lifeCycles.size());
+      List<Future<StartResult<T>>> futures = new ArrayList<>(lifeCycles.size());
+      for (T lifeCycle : lifeCycles) {
+        StartTask<T> task = new StartTask<>(lifeCycle);
+        tasks.add(task);
+        futures.add(executor.submit(task));
+      }
+
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      for (int i = 0, n = tasks.size(); i < n; i++) {
+        results.add(waitForResult(tasks.get(i), futures.get(i), deadline));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    return results;
+  }
+
+  private <T extends LifeCycle> StartResult<T> waitForResult(final StartTask<T> task,
+      final Future<StartResult<T>> future, final long deadline) {
+    T lifeCycle = task.lifeCycle;
+    try {
+      if (timeoutMillis <= 0) {
+        return future.get();
+      }
+      try {
+        return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        if (task.abandon()) {
+          return new StartResult<>(lifeCycle, timeoutMillis,
+              new TimeoutException("Start did not finish within " + timeoutMillis + " ms: "
+                  + lifeCycle));
+        }
+        // The start finished right after the timeout elapsed
+        return future.get();
+      }
+    } catch (ExecutionException e) {
+      return new StartResult<>(lifeCycle, 0, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new StartResult<>(lifeCycle, 0, e);
+    }
+  }
+}
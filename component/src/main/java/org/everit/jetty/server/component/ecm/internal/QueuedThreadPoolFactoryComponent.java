@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.everit.jetty.server.component.ecm.PriorityConstants;
+import org.everit.jetty.server.component.ecm.QueuedThreadPoolFactoryConstants;
+import org.everit.jetty.server.component.ecm.ThreadPoolFactory;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.extender.ECMExtenderConstants;
+import org.osgi.framework.Constants;
+
+import aQute.bnd.annotation.headers.ProvideCapability;
+
+/**
+ * ECM based configurable component that creates {@link QueuedThreadPool} instances for Jetty
+ * servers.
+ */
+@Component(componentId = QueuedThreadPoolFactoryConstants.SERVICE_FACTORY_PID,
+    configurationPolicy = ConfigurationPolicy.FACTORY,
+    label = "Everit Jetty QueuedThreadPool Factory",
+    description = "Component to create sized QueuedThreadPool instances with an optionally bounded "
+        + "job queue.")
+@ProvideCapability(ns = ECMExtenderConstants.CAPABILITY_NS_COMPONENT,
+    value = ECMExtenderConstants.CAPABILITY_ATTR_CLASS + "=${@class}")
+@StringAttributes({
+    @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
+        label = "Service description",
+        description = "Optional description for the instantiated QueuedThreadPool Factory.") })
+@Service
+public class QueuedThreadPoolFactoryComponent implements ThreadPoolFactory {
+
+  private final WeakHashMap<QueuedThreadPool, Boolean> activeThreadPools = new WeakHashMap<>();
+
+  private int idleTimeout;
+
+  private int maxThreads;
+
+  private int minThreads;
+
+  private String name;
+
+  private int queueCapacity;
+
+  private synchronized Set<QueuedThreadPool> cloneActiveThreadPools() {
+    return new HashSet<>(activeThreadPools.keySet());
+  }
+
+  @Override
+  public synchronized ThreadPool createThreadPool() {
+    QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, minThreads, idleTimeout,
+        createQueue());
+
+    if (name != null) {
+      threadPool.setName(name);
+    }
+
+    activeThreadPools.put(threadPool, Boolean.TRUE);
+    return threadPool;
+  }
+
+  private BlockingQueue<Runnable> createQueue() {
+    int growBy = Math.max(1, minThreads);
+    if (queueCapacity <= 0) {
+      return new BlockingArrayQueue<>(growBy, growBy);
+    }
+    return new BlockingArrayQueue<>(Math.min(growBy, queueCapacity), growBy, queueCapacity);
+  }
+
+  /**
+   * Sets the idle timeout on the component and all active thread pools.
+   */
+  @IntegerAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_IDLE_TIMEOUT,
+      defaultValue = QueuedThreadPoolFactoryConstants.DEFAULT_IDLE_TIMEOUT, dynamic = true,
+      priority = PriorityConstants.PRIORITY_03, label = "Idle timeout",
+      description = "The maximum time in milliseconds that a thread may be idle before it is "
+          + "stopped, as long as there are more threads than the minimum.")
+  public synchronized void setIdleTimeout(final int idleTimeout) {
+    this.idleTimeout = idleTimeout;
+    for (QueuedThreadPool threadPool : cloneActiveThreadPools()) {
+      threadPool.setIdleTimeout(idleTimeout);
+    }
+  }
+
+  /**
+   * Sets the maximum number of threads on the component and all active thread pools.
+   */
+  @IntegerAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_MAX_THREADS,
+      defaultValue = QueuedThreadPoolFactoryConstants.DEFAULT_MAX_THREADS, dynamic = true,
+      priority = PriorityConstants.PRIORITY_02, label = "Max. threads",
+      description = "The maximum number of threads in the pool. The pool must be big enough to "
+          + "hold the acceptor and selector threads of all connectors of the server.")
+  public synchronized void setMaxThreads(final int maxThreads) {
+    this.maxThreads = maxThreads;
+    for (QueuedThreadPool threadPool : cloneActiveThreadPools()) {
+      threadPool.setMaxThreads(maxThreads);
+    }
+  }
+
+  /**
+   * Sets the minimum number of threads on the component and all active thread pools.
+   */
+  @IntegerAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_MIN_THREADS,
+      defaultValue = QueuedThreadPoolFactoryConstants.DEFAULT_MIN_THREADS, dynamic = true,
+      priority = PriorityConstants.PRIORITY_01, label = "Min. threads",
+      description = "The minimum number of threads that are kept alive in the pool.")
+  public synchronized void setMinThreads(final int minThreads) {
+    this.minThreads = minThreads;
+    for (QueuedThreadPool threadPool : cloneActiveThreadPools()) {
+      threadPool.setMinThreads(minThreads);
+    }
+  }
+
+  @StringAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_NAME, optional = true,
+      priority = PriorityConstants.PRIORITY_05, label = "Name",
+      description = "The name of the thread pool that is used as the prefix of the thread names.")
+  public void setName(final String name) {
+    this.name = name;
+  }
+
+  @IntegerAttribute(attributeId = QueuedThreadPoolFactoryConstants.ATTR_QUEUE_CAPACITY,
+      defaultValue = QueuedThreadPoolFactoryConstants.DEFAULT_QUEUE_CAPACITY,
+      priority = PriorityConstants.PRIORITY_04, label = "Queue capacity",
+      description = "The maximum number of jobs that can wait for a free thread. In case the "
+          + "queue is full, new jobs are rejected so the server pushes back instead of letting "
+          + "the latency grow. Zero or a negative value means that the queue is unbounded.")
+  public void setQueueCapacity(final int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.util.Set;
+
+import org.eclipse.jetty.io.EndPoint;
+import org.everit.osgi.jetty.server.ReferencedEndPointsCloseable;
+
+/**
+ * A {@link ReferencedEndPointsCloseable} whose endpoints can also be closed gracefully, without
+ * interrupting the requests that are in progress.
+ */
+public interface ReferencedEndPointsDrainable extends ReferencedEndPointsCloseable {
+
+  /**
+   * Closes the referenced endpoints that are idle and marks the busy ones to be closed after their
+   * current response.
+   *
+   * @return The endpoints that were busy and might still be open.
+   */
+  Set<EndPoint> drainReferencedEndpoints();
+}
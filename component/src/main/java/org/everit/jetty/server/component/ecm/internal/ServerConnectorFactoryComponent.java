@@ -15,21 +15,28 @@
  */
 package org.everit.jetty.server.component.ecm.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.ConcurrentModificationException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.WeakHashMap;
 
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.everit.jetty.server.component.ecm.ByteBufferPoolFactory;
+import org.everit.jetty.server.component.ecm.JettyServerConstants;
 import org.everit.jetty.server.component.ecm.PriorityConstants;
 import org.everit.jetty.server.component.ecm.ServerConnectorFactoryConstants;
 import org.everit.osgi.ecm.annotation.Activate;
 import org.everit.osgi.ecm.annotation.Component;
 import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Deactivate;
 import org.everit.osgi.ecm.annotation.Service;
 import org.everit.osgi.ecm.annotation.ServiceRef;
 import org.everit.osgi.ecm.annotation.Update;
@@ -38,6 +45,7 @@ import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
 import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+import org.everit.osgi.ecm.component.ConfigurationException;
 import org.everit.osgi.ecm.extender.ECMExtenderConstants;
 import org.everit.osgi.jetty.server.ConnectionFactoryFactory;
 import org.everit.osgi.jetty.server.NetworkConnectorFactory;
@@ -64,12 +72,21 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
 
   private int acceptorPriorityDelta;
 
+  private String acceptors;
+
   private int acceptQueueSize;
 
+  private ByteBufferPoolFactory byteBufferPoolFactory;
+
   private boolean closeEndpointsAfterDynamicUpdate;
 
   private ConnectionFactoryFactory[] connectionFactoryFactories;
 
+  private long drainTimeout;
+
+  private final EndPointDrainer endPointDrainer =
+      new EndPointDrainer("ServerConnector-endpoint-drainer");
+
   private long idleTimeout = ServerConnectorFactoryConstants.DEFAULT_IDLE_TIMEOUT;
 
   private boolean inheritChannel;
@@ -85,6 +102,8 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
 
   private int selectorPriorityDelta;
 
+  private String selectors;
+
   private boolean updateConnectionFactories = false;
 
   @Activate
@@ -105,11 +124,35 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
     return result;
   }
 
+  private int countConnectors(final Server server) {
+    Object connectorCount =
+        server.getAttribute(JettyServerConstants.SERVER_ATTRIBUTE_CONNECTOR_COUNT);
+    if (connectorCount instanceof Integer) {
+      return Math.max(1, (Integer) connectorCount);
+    }
+    return 1;
+  }
+
   @Override
   public ServerConnector createNetworkConnector(final Server server, final String host,
       final int port) {
 
-    ServerConnector result = new ServerConnector(server);
+    int connectorCount = countConnectors(server);
+    int availableProcessors = Runtime.getRuntime().availableProcessors();
+
+    int autoAcceptors = Math.max(1, Math.min(4, availableProcessors / 8) / connectorCount);
+    int autoSelectors = Math.max(1, (availableProcessors / 2) / connectorCount);
+
+    ByteBufferPool byteBufferPool = null;
+    if (byteBufferPoolFactory != null) {
+      byteBufferPool = byteBufferPoolFactory.getByteBufferPool();
+    }
+
+    ServerConnector result = new CustomServerConnector(server, null, null, byteBufferPool,
+        resolveThreadCount(ServerConnectorFactoryConstants.ATTR_ACCEPTORS, acceptors,
+            autoAcceptors),
+        resolveThreadCount(ServerConnectorFactoryConstants.ATTR_SELECTORS, selectors,
+            autoSelectors));
 
     Collection<ConnectionFactory> connectionFactories = generateConnectionFactories();
     result.setConnectionFactories(connectionFactories);
@@ -128,6 +171,14 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
     return result;
   }
 
+  /**
+   * Stops the scheduler of the endpoint drain timeouts.
+   */
+  @Deactivate
+  public void deactivate() {
+    endPointDrainer.shutdown();
+  }
+
   private Collection<ConnectionFactory> generateConnectionFactories() {
     int n = connectionFactoryFactories.length;
     ConnectionFactory[] result = new ConnectionFactory[n];
@@ -165,6 +216,37 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
 
   }
 
+  private int resolveThreadCount(final String attributeId, final String value,
+      final int autoValue) {
+    if (value == null) {
+      return -1;
+    }
+    if (ServerConnectorFactoryConstants.THREAD_COUNT_AUTO.equals(value.trim())) {
+      return autoValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new ConfigurationException("Invalid value for '" + attributeId + "': " + value
+          + ". The value must be an integer or '"
+          + ServerConnectorFactoryConstants.THREAD_COUNT_AUTO + "'.", e);
+    }
+  }
+
+  /**
+   * Sets the number of acceptor threads of the connectors that are created afterwards.
+   */
+  @StringAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_ACCEPTORS, optional = true,
+      priority = PriorityConstants.PRIORITY_10, label = "Acceptors",
+      description = "The number of acceptor threads of the connector. In case the value is "
+          + "\"auto\", the available processors are shared evenly between the connector clauses "
+          + "of the server. If not specified, the default heuristic of Jetty is used. A change "
+          + "re-creates the connectors.")
+  public void setAcceptors(final String acceptors) {
+    resolveThreadCount(ServerConnectorFactoryConstants.ATTR_ACCEPTORS, acceptors, 0);
+    this.acceptors = acceptors;
+  }
+
   /**
    * Setter that also updates the property on the connector without restarting it.
    */
@@ -175,6 +257,16 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
     this.acceptQueueSize = acceptQueueSize;
   }
 
+  @ServiceRef(referenceId = ServerConnectorFactoryConstants.ATTR_BYTE_BUFFER_POOL_FACTORY,
+      optional = true, attributePriority = PriorityConstants.PRIORITY_12,
+      label = "ByteBufferPool factory (target)",
+      description = "OSGi filter expression that points to a ByteBufferPoolFactory service. "
+          + "Connectors that reference the same factory share its buffer pool. If not specified, "
+          + "every connector uses the pool of the server or a default pool of its own.")
+  public void setByteBufferPoolFactory(final ByteBufferPoolFactory byteBufferPoolFactory) {
+    this.byteBufferPoolFactory = byteBufferPoolFactory;
+  }
+
   /**
    * Setter that also updates the property on the connector without restarting it.
    */
@@ -199,8 +291,21 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
     closeEndpointsAfterDynamicUpdate = true;
   }
 
+  @LongAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_DRAIN_TIMEOUT,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_DRAIN_TIMEOUT, dynamic = true,
+      priority = PriorityConstants.PRIORITY_13, label = "Drain timeout (ms)",
+      description = "In case the connection factories of the connectors are replaced and this "
+          + "value is greater than zero, only the idle connections are closed immediately. Busy "
+          + "connections are closed after their current response or after this time in "
+          + "milliseconds, whichever comes first. Zero means that every connection is closed "
+          + "immediately.")
+  public void setDrainTimeout(final long drainTimeout) {
+    this.drainTimeout = drainTimeout;
+  }
+
   /**
-   * Setter that also updates the property on the connector without restarting it.
+   * Setter that also updates the property on the connector and on its connected endpoints without
+   * restarting the connector or closing the endpoints.
    */
   @LongAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_IDLE_TIMEOUT,
       defaultValue = ServerConnectorFactoryConstants.DEFAULT_IDLE_TIMEOUT, dynamic = true,
@@ -212,9 +317,10 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
     this.idleTimeout = idleTimeout;
     for (ServerConnector serverConnector : activeServerConnectors()) {
       serverConnector.setIdleTimeout(idleTimeout);
+      for (EndPoint endPoint : serverConnector.getConnectedEndPoints()) {
+        endPoint.setIdleTimeout(idleTimeout);
+      }
     }
-    closeEndpointsAfterDynamicUpdate = true;
-
   }
 
   @BooleanAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_INHERIT_CHANNEL,
@@ -230,12 +336,19 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
     this.inheritChannel = inheritChannel;
   }
 
+  /**
+   * Setter that also updates the property on the connector without restarting it. The new value
+   * is applied on the connections that are accepted afterwards.
+   */
   @IntegerAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_LINGER_TIME,
-      defaultValue = ServerConnectorFactoryConstants.DEFAULT_LINGER_TIME,
+      defaultValue = ServerConnectorFactoryConstants.DEFAULT_LINGER_TIME, dynamic = true,
       priority = PriorityConstants.PRIORITY_07, label = "Linger time",
       description = "The linger time. Use -1 to disable.")
-  public void setLingerTime(final int lingerTime) {
+  public synchronized void setLingerTime(final int lingerTime) {
     this.lingerTime = lingerTime;
+    for (ServerConnector serverConnector : activeServerConnectors()) {
+      serverConnector.setSoLingerTime(lingerTime);
+    }
   }
 
   @StringAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_NAME, optional = true,
@@ -271,6 +384,20 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
     }
   }
 
+  /**
+   * Sets the number of selector threads of the connectors that are created afterwards.
+   */
+  @StringAttribute(attributeId = ServerConnectorFactoryConstants.ATTR_SELECTORS, optional = true,
+      priority = PriorityConstants.PRIORITY_11, label = "Selectors",
+      description = "The number of selector threads of the connector. In case the value is "
+          + "\"auto\", the available processors are shared evenly between the connector clauses "
+          + "of the server. If not specified, the default heuristic of Jetty is used. A change "
+          + "re-creates the connectors.")
+  public void setSelectors(final String selectors) {
+    resolveThreadCount(ServerConnectorFactoryConstants.ATTR_SELECTORS, selectors, 0);
+    this.selectors = selectors;
+  }
+
   /**
    * Updates all connection factories if necessary and closes all endpoints if necessary.
    */
@@ -287,13 +414,15 @@ public class ServerConnectorFactoryComponent implements NetworkConnectorFactory
           serverConnector.setDefaultProtocol(connectionFactories.iterator().next().getProtocol());
         }
 
-        // Closing all endpoints
+        // Closing or draining all endpoints
+        List<ReferencedEndPointsCloseable> connectionFactoriesToClose = new ArrayList<>();
         for (ConnectionFactory connectionFactory : previousConnectionFactories) {
 
           if (connectionFactory instanceof ReferencedEndPointsCloseable) {
-            ((ReferencedEndPointsCloseable) connectionFactory).closeReferencedEndpoints();
+            connectionFactoriesToClose.add((ReferencedEndPointsCloseable) connectionFactory);
           }
         }
+        endPointDrainer.drain(connectionFactoriesToClose, drainTimeout);
       }
     }
 
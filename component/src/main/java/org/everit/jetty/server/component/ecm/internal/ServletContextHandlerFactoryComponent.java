@@ -19,6 +19,11 @@ import java.util.ConcurrentModificationException;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.Filter;
 import javax.servlet.Servlet;
@@ -38,8 +43,11 @@ import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.servlet.ServletMapping;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 import org.everit.jetty.server.component.ecm.PriorityConstants;
 import org.everit.jetty.server.component.ecm.ServletContextHandlerFactoryConstants;
+import org.everit.jetty.server.component.ecm.ServletContextReconfigurationStatistics;
 import org.everit.jetty.server.component.ecm.internal.servletcontext.FilterHolderManager;
 import org.everit.jetty.server.component.ecm.internal.servletcontext.FilterMappingKey;
 import org.everit.jetty.server.component.ecm.internal.servletcontext.FilterMappingManager;
@@ -50,6 +58,7 @@ import org.everit.jetty.server.component.ecm.internal.servletcontext.ServletMapp
 import org.everit.osgi.ecm.annotation.Activate;
 import org.everit.osgi.ecm.annotation.Component;
 import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Deactivate;
 import org.everit.osgi.ecm.annotation.ReferenceConfigurationType;
 import org.everit.osgi.ecm.annotation.Service;
 import org.everit.osgi.ecm.annotation.ServiceRef;
@@ -57,6 +66,7 @@ import org.everit.osgi.ecm.annotation.ThreeStateBoolean;
 import org.everit.osgi.ecm.annotation.Update;
 import org.everit.osgi.ecm.annotation.attribute.BooleanAttribute;
 import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
 import org.everit.osgi.ecm.component.ServiceHolder;
@@ -72,7 +82,8 @@ import aQute.bnd.annotation.headers.ProvideCapability;
 /**
  * ECM based configurable component that registers one or more instantiated
  * {@link ServletContextHandler} OSGi services. The component handles filter and servlet reference
- * changes dynamically.
+ * changes dynamically. Servlet and filter changes can be coalesced within a configurable delay so
+ * that a burst of changes is applied on the handlers in one step.
  */
 @ProvideCapability(ns = ECMExtenderConstants.CAPABILITY_NS_COMPONENT,
     value = ECMExtenderConstants.CAPABILITY_ATTR_CLASS + "=${@class}")
@@ -85,12 +96,19 @@ import aQute.bnd.annotation.headers.ProvideCapability;
     @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
         label = "Service description",
         description = "Optional description for ServletContextHandlerFactory service.") })
-@Service(ServletContextHandlerFactory.class)
-public class ServletContextHandlerFactoryComponent implements ServletContextHandlerFactory {
+@Service({ ServletContextHandlerFactory.class, ServletContextReconfigurationStatistics.class })
+public class ServletContextHandlerFactoryComponent
+    implements ServletContextHandlerFactory, ServletContextReconfigurationStatistics {
+
+  private static final Logger LOG = Log.getLogger(ServletContextHandlerFactoryComponent.class);
 
   private final WeakHashMap<ServletContextHandler, Boolean> activeServletContextHandlers =
       new WeakHashMap<>();
 
+  private final AtomicLong appliedReconfigurationCount = new AtomicLong();
+
+  private final AtomicLong coalescedChangeCount = new AtomicLong();
+
   private ServletContextAttributeListener[] contextAttributeListeners;
 
   private ServletContextListener[] contextListeners;
@@ -111,6 +129,14 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
 
   private MimeTypes mimeTypes;
 
+  private long pendingChangeCount = 0;
+
+  private ScheduledFuture<?> pendingReconfiguration;
+
+  private long reconfigurationDelay;
+
+  private ScheduledExecutorService reconfigurationExecutor;
+
   private ServletRequestAttributeListener[] requestAttributeListeners;
 
   private ServletRequestListener[] requestListeners;
@@ -136,7 +162,9 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
   @Activate
   public void activate() {
     servletHolderManager.updatePrviousKeys(servletKeys);
+    servletMappingManager.updatePrviousKeys(servletMappingKeys);
     filterHolderManager.updatePrviousKeys(filterKeys);
+    filterMappingManager.updatePrviousKeys(filterMappingKeys);
   }
 
   private void addListenersToHandler(final ServletContextHandler servletContextHandler) {
@@ -158,6 +186,50 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
 
   }
 
+  /**
+   * Applies the current servlets and filters on all active handlers if they changed since the
+   * previous application.
+   */
+  private synchronized void applyReconfiguration() {
+    pendingReconfiguration = null;
+    long changeCount = pendingChangeCount;
+    pendingChangeCount = 0;
+
+    if (!isServletOrFilterChanged()) {
+      return;
+    }
+
+    Set<ServletContextHandler> servletContextHandlers = cloneActiveServletContextHandlerSet();
+    for (ServletContextHandler servletContextHandler : servletContextHandlers) {
+      ServletHandler servletHandler = servletContextHandler.getServletHandler();
+      if (servletHandler instanceof CustomServletHandler) {
+        updateServletHandlerWithDynamicSettings((CustomServletHandler) servletHandler);
+      }
+    }
+    servletHolderManager.updatePrviousKeys(servletKeys);
+    servletMappingManager.updatePrviousKeys(servletMappingKeys);
+    filterHolderManager.updatePrviousKeys(filterKeys);
+    filterMappingManager.updatePrviousKeys(filterMappingKeys);
+
+    appliedReconfigurationCount.incrementAndGet();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Applied {} servlet and filter change(s) on {} servlet context(s)", changeCount,
+          servletContextHandlers.size());
+    }
+  }
+
+  /**
+   * Applies the coalesced changes from the reconfiguration thread. The exceptions are logged here
+   * as the {@link ScheduledFuture} of the task would swallow them.
+   */
+  private void applyScheduledReconfiguration() {
+    try {
+      applyReconfiguration();
+    } catch (RuntimeException e) {
+      LOG.warn("Could not apply the servlet and filter changes on the servlet contexts", e);
+    }
+  }
+
   private Set<ServletContextHandler> cloneActiveServletContextHandlerSet() {
     Set<ServletContextHandler> result = null;
     while (result == null) {
@@ -174,6 +246,15 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
   @Override
   public synchronized ServletContextHandler createHandler(final HandlerContainer parent,
       final String contextPath) {
+    // The holders of the new handler are generated from the current keys, so the pending changes
+    // are applied on the existing handlers first to keep the previous keys valid for all handlers
+    if (isServletOrFilterChanged()) {
+      if (pendingReconfiguration != null) {
+        pendingReconfiguration.cancel(false);
+      }
+      applyReconfiguration();
+    }
+
     CustomServletHandler servletHandler = new CustomServletHandler();
 
     servletHandler.setEnsureDefaultServlet(false);
@@ -207,6 +288,39 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
     return servletContextHandler;
   }
 
+  /**
+   * Stops the scheduler of the delayed reconfigurations. Pending changes are dropped as the created
+   * handlers are not used after the component is deactivated.
+   */
+  @Deactivate
+  public synchronized void deactivate() {
+    if (pendingReconfiguration != null) {
+      pendingReconfiguration.cancel(false);
+      pendingReconfiguration = null;
+    }
+    if (reconfigurationExecutor != null) {
+      reconfigurationExecutor.shutdownNow();
+      reconfigurationExecutor = null;
+    }
+  }
+
+  @Override
+  public long getAppliedReconfigurationCount() {
+    return appliedReconfigurationCount.get();
+  }
+
+  @Override
+  public long getCoalescedChangeCount() {
+    return coalescedChangeCount.get();
+  }
+
+  private boolean isServletOrFilterChanged() {
+    return servletHolderManager.isChanged(servletKeys)
+        || servletMappingManager.isChanged(servletMappingKeys)
+        || filterHolderManager.isChanged(filterKeys)
+        || filterMappingManager.isChanged(filterMappingKeys);
+  }
+
   private ErrorHandler resolveErrorHandler() {
     ErrorHandler errorHandler = null;
     if (errorHandlerFactory != null) {
@@ -337,6 +451,17 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
 
   }
 
+  @LongAttribute(attributeId = ServletContextHandlerFactoryConstants.ATTR_RECONFIGURATION_DELAY,
+      defaultValue = 0, priority = PriorityConstants.PRIORITY_16,
+      label = "Reconfiguration delay (ms)",
+      description = "The time in milliseconds while the servlet and filter changes are collected "
+          + "before they are applied on the servlet contexts. Changes that arrive within this "
+          + "window are applied together. Zero or a negative value means that every change is "
+          + "applied immediately.")
+  public void setReconfigurationDelay(final long reconfigurationDelay) {
+    this.reconfigurationDelay = reconfigurationDelay;
+  }
+
   @ServiceRef(
       referenceId = ServletContextHandlerFactoryConstants.ATTR_REQUEST_ATTRIBUTE_LISTENERS,
       optional = true, attributePriority = PriorityConstants.PRIORITY_07,
@@ -385,7 +510,7 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
           + "Possible attributes are: url-pattern, init-*. E.g.: myFilter;url-pattern=\"/a,/b/c\";"
           + "filter:=(service.pid=...). The OSGi service that implements the Servlet interface can "
           + "contain the \"async-supported\" service property.")
-  public void setServlets(final ServiceHolder<Servlet>[] servlets) {
+  public synchronized void setServlets(final ServiceHolder<Servlet>[] servlets) {
     servletKeys = resolveHolderKeys(servlets);
     servletMappingKeys = resolveServletMappingKeys(servlets);
   }
@@ -425,22 +550,38 @@ public class ServletContextHandlerFactoryComponent implements ServletContextHand
 
   /**
    * Updates the dynamic references (filters and servlets with their mappings) on all of the created
-   * and still used (the instances are referenced) {@link ServletContextHandler} instances.
+   * and still used (the instances are referenced) {@link ServletContextHandler} instances. Nothing
+   * is done if the servlets and filters did not change since the previous update. In case a
+   * reconfiguration delay is configured, the changes are applied after the delay together with all
+   * other changes that arrive in the meantime.
    */
   @Update
   public synchronized void update() {
+    if (!isServletOrFilterChanged()) {
+      return;
+    }
 
-    Set<ServletContextHandler> servletContextHandlers = cloneActiveServletContextHandlerSet();
-    for (ServletContextHandler servletContextHandler : servletContextHandlers) {
-      ServletHandler servletHandler = servletContextHandler.getServletHandler();
-      if (servletHandler instanceof CustomServletHandler) {
-        updateServletHandlerWithDynamicSettings((CustomServletHandler) servletHandler);
-      }
+    pendingChangeCount++;
+    if (reconfigurationDelay <= 0) {
+      applyReconfiguration();
+      return;
     }
-    servletHolderManager.updatePrviousKeys(servletKeys);
-    servletMappingManager.updatePrviousKeys(servletMappingKeys);
-    filterHolderManager.updatePrviousKeys(filterKeys);
-    filterMappingManager.updatePrviousKeys(filterMappingKeys);
+
+    if (pendingReconfiguration != null) {
+      coalescedChangeCount.incrementAndGet();
+      return;
+    }
+
+    if (reconfigurationExecutor == null) {
+      reconfigurationExecutor = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+        Thread thread = new Thread(runnable,
+            "ServletContextHandlerFactory-reconfiguration-" + System.identityHashCode(this));
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    pendingReconfiguration = reconfigurationExecutor.schedule(
+        this::applyScheduledReconfiguration, reconfigurationDelay, TimeUnit.MILLISECONDS);
   }
 
   private synchronized void updateMaxFormContentSize(final int pMaxFormContentSize) {
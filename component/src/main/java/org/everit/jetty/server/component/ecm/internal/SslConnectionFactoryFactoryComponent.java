@@ -17,17 +17,24 @@ package org.everit.jetty.server.component.ecm.internal;
 
 import java.net.URL;
 import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.SslConnectionFactory;
-import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 import org.everit.jetty.server.component.ecm.PriorityConstants;
 import org.everit.jetty.server.component.ecm.SslConnectionFactoryFactoryConstants;
+import org.everit.jetty.server.component.ecm.SslSessionStatistics;
 import org.everit.osgi.ecm.annotation.Activate;
 import org.everit.osgi.ecm.annotation.Component;
 import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
 import org.everit.osgi.ecm.annotation.Service;
 import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.Update;
+import org.everit.osgi.ecm.annotation.attribute.BooleanAttribute;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
 import org.everit.osgi.ecm.annotation.attribute.PasswordAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
 import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
@@ -39,7 +46,26 @@ import org.osgi.framework.Constants;
 import aQute.bnd.annotation.headers.ProvideCapability;
 
 /**
- * Component that can create {@link SslConnectionFactory} instances.
+ * Component that can create {@link SslConnectionFactory} instances. If the next connection factory
+ * of the connector is an ALPN connection factory, the protocol of the connections is negotiated
+ * during the TLS handshake and the cipher suites that HTTP/2 allows are preferred. The TLS session
+ * cache settings can be changed without recreating the connection factories.
+ *
+ * <p>
+ * The created connection factories share one {@link CustomSslContextFactory}, so the keystore is
+ * loaded only once and the TLS sessions can be resumed on any connector of the component. The
+ * context factory is started by the first connection factory that starts and it is stopped when
+ * the last one stops.
+ *
+ * <p>
+ * The keystore, the passwords and the certificate alias can be changed without recreating the
+ * connection factories. The new key material is used for the handshakes of the new connections,
+ * while the existing connections keep running with the previous one.
+ *
+ * <p>
+ * If no certificate alias is specified, one connector can serve several virtual hosts with
+ * different certificates of the same keystore. The certificate is selected by the SNI host name
+ * of the client, wildcard certificates are supported.
  */
 @Component(componentId = SslConnectionFactoryFactoryConstants.SERVICE_FACTORY_PID,
     configurationPolicy = ConfigurationPolicy.FACTORY,
@@ -51,50 +77,80 @@ import aQute.bnd.annotation.headers.ProvideCapability;
     @StringAttribute(attributeId = Constants.SERVICE_DESCRIPTION, optional = true,
         label = "Service description",
         description = "Optional description for the instantiated SslConnectionFactory Factory.") })
-@Service
-public class SslConnectionFactoryFactoryComponent implements ConnectionFactoryFactory {
+@Service({ ConnectionFactoryFactory.class, SslSessionStatistics.class })
+public class SslConnectionFactoryFactoryComponent
+    implements ConnectionFactoryFactory, SslSessionStatistics {
+
+  private static final String ALPN_PROTOCOL = "alpn";
+
+  private static final Logger LOG = Log.getLogger(SslConnectionFactoryFactoryComponent.class);
 
   private BundleContext bundleContext;
 
   private String certAlias;
 
+  private String defaultCertAlias;
+
+  private String[] excludeCipherSuites;
+
   private String[] excludeProtocols;
 
+  private String[] includeCipherSuites;
+
   private String[] includeProtocols;
 
   private String keyManagerPassword;
 
+  private boolean keyMaterialChanged = false;
+
   private KeyStore keyStore;
 
   private String keyStorePassword;
 
+  private String provider;
+
+  private final SslSessionResumptionCounter resumptionCounter = new SslSessionResumptionCounter();
+
+  private boolean sessionCachingEnabled;
+
+  /**
+   * The shared context factories by whether they prefer the cipher suites of HTTP/2.
+   */
+  private final Map<Boolean, CustomSslContextFactory> sharedSslContextFactories = new HashMap<>();
+
+  private int sslSessionCacheSize;
+
+  private int sslSessionTimeout;
+
+  private boolean useCipherSuitesOrder;
+
   @Activate
   public void activate(final BundleContext pBundleContext) {
     bundleContext = pBundleContext;
-
+    keyMaterialChanged = false;
   }
 
   @Override
-  public ConnectionFactory createConnectionFactory(final String nextProtocol) {
+  public synchronized ConnectionFactory createConnectionFactory(final String nextProtocol) {
+    Boolean http2CipherOrder = ALPN_PROTOCOL.equals(nextProtocol);
+    CustomSslContextFactory sslContextFactory = sharedSslContextFactories.get(http2CipherOrder);
+    if (sslContextFactory == null) {
+      sslContextFactory = createSslContextFactory(http2CipherOrder);
+      sharedSslContextFactories.put(http2CipherOrder, sslContextFactory);
+    }
+
+    return new CustomSslConnectionFactory(sslContextFactory, nextProtocol, resumptionCounter);
+  }
 
-    SslContextFactory sslContextFactory = new SslContextFactory();
+  private CustomSslContextFactory createSslContextFactory(final boolean http2CipherOrder) {
+    CustomSslContextFactory sslContextFactory = new CustomSslContextFactory();
 
     if (keyStore != null) {
       sslContextFactory.setKeyStore(keyStore);
       sslContextFactory.setKeyStorePassword(keyStorePassword);
       sslContextFactory.setCertAlias(certAlias);
+      sslContextFactory.setDefaultCertAlias(defaultCertAlias);
       sslContextFactory.setKeyManagerPassword(keyManagerPassword);
-
-      if ((includeProtocols != null) && (includeProtocols.length > 0)) {
-        sslContextFactory.setIncludeProtocols(includeProtocols);
-      }
-
-      if ((excludeProtocols != null) && (excludeProtocols.length > 0)) {
-        sslContextFactory.setExcludeProtocols(excludeProtocols);
-      }
-
-      // TODO we have much more settings
-
     } else {
       URL keyStoreUrl = bundleContext.getBundle().getResource("META-INF/development-keystore.jks");
       sslContextFactory.setKeyStorePath(keyStoreUrl.toExternalForm());
@@ -103,23 +159,91 @@ public class SslConnectionFactoryFactoryComponent implements ConnectionFactoryFa
       sslContextFactory.setKeyStoreType("JKS");
     }
 
-    SslConnectionFactory sslConnectionFactory = new CustomSslConnectionFactory(sslContextFactory,
-        nextProtocol);
+    sslContextFactory.setProvider(provider);
+
+    if ((includeProtocols != null) && (includeProtocols.length > 0)) {
+      sslContextFactory.setIncludeProtocols(includeProtocols);
+    }
+
+    if ((excludeProtocols != null) && (excludeProtocols.length > 0)) {
+      sslContextFactory.setExcludeProtocols(excludeProtocols);
+    }
+
+    if ((includeCipherSuites != null) && (includeCipherSuites.length > 0)) {
+      sslContextFactory.setIncludeCipherSuites(includeCipherSuites);
+    }
+
+    if ((excludeCipherSuites != null) && (excludeCipherSuites.length > 0)) {
+      sslContextFactory.setExcludeCipherSuites(excludeCipherSuites);
+    }
+
+    sslContextFactory.setUseCipherSuitesOrder(useCipherSuitesOrder);
+    if (http2CipherOrder) {
+      Http2CipherOrder.apply(sslContextFactory);
+    }
 
-    return sslConnectionFactory;
+    sslContextFactory.setSessionCachingEnabled(sessionCachingEnabled);
+    sslContextFactory.setSslSessionCacheSize(sslSessionCacheSize);
+    sslContextFactory.setSslSessionTimeout(sslSessionTimeout);
+    return sslContextFactory;
+  }
+
+  @Override
+  public long getSessionResumptionHitCount() {
+    return resumptionCounter.getSessionResumptionHitCount();
+  }
+
+  @Override
+  public long getSessionResumptionMissCount() {
+    return resumptionCounter.getSessionResumptionMissCount();
   }
 
   @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_CERT_ALIAS,
-      optional = true, priority = PriorityConstants.PRIORITY_03, label = "Certificate alias",
-      description = "Alias of SSL certificate for the connector.")
-  public void setCertAlias(final String certAlias) {
+      optional = true, dynamic = true, priority = PriorityConstants.PRIORITY_03,
+      label = "Certificate alias",
+      description = "Alias of SSL certificate for the connector. If not specified, the "
+          + "certificate is selected by the SNI host name that the client sends.")
+  public synchronized void setCertAlias(final String certAlias) {
     this.certAlias = certAlias;
+    keyMaterialChanged = true;
   }
 
+  @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_DEFAULT_CERT_ALIAS,
+      optional = true, dynamic = true, priority = PriorityConstants.PRIORITY_14,
+      label = "Default certificate alias",
+      description = "Alias of the SSL certificate that is used if the certificate alias is not "
+          + "specified and the client does not send an SNI host name or there is no certificate "
+          + "for the host name. If not specified, any certificate of the keystore can be used.")
+  public synchronized void setDefaultCertAlias(final String defaultCertAlias) {
+    this.defaultCertAlias = defaultCertAlias;
+    keyMaterialChanged = true;
+  }
+
+  @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_EXCLUDE_CIPHER_SUITES,
+      optional = true, priority = PriorityConstants.PRIORITY_08, label = "Exclude cipher suites",
+      description = "The cipher suite names or regular expressions that must not be enabled. If "
+          + "specified, the default exclusions of Jetty are replaced.")
+  public void setExcludeCipherSuites(final String[] excludeCipherSuites) {
+    this.excludeCipherSuites = excludeCipherSuites;
+  }
+
+  @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_EXCLUDE_PROTOCOLS,
+      optional = true, priority = PriorityConstants.PRIORITY_06, label = "Exclude protocols",
+      description = "The array of protocol names to exclude from "
+          + "SSLEngine.setEnabledProtocols(String [])")
   public void setExcludeProtocols(final String[] excludeProtocols) {
     this.excludeProtocols = excludeProtocols;
   }
 
+  @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_INCLUDE_CIPHER_SUITES,
+      optional = true, priority = PriorityConstants.PRIORITY_07, label = "Include cipher suites",
+      description = "The cipher suite names or regular expressions that are enabled if the JSSE "
+          + "provider supports them. If the cipher suite order of the server is used, this is the "
+          + "order of preference (e.g. the AES-GCM suites first on CPUs with AES instructions).")
+  public void setIncludeCipherSuites(final String[] includeCipherSuites) {
+    this.includeCipherSuites = includeCipherSuites;
+  }
+
   @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_INCLUDE_PROTOCOLS,
       optional = true, priority = PriorityConstants.PRIORITY_05, label = "Include protocols",
       description = "The array of protocol names to include in "
@@ -129,27 +253,119 @@ public class SslConnectionFactoryFactoryComponent implements ConnectionFactoryFa
   }
 
   @PasswordAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_KEY_MANAGER_PASSWORD,
-      optional = true, priority = PriorityConstants.PRIORITY_04, label = "Key manager password",
+      optional = true, dynamic = true, priority = PriorityConstants.PRIORITY_04,
+      label = "Key manager password",
       description = "The password (if any) for the specific key within the key store.")
-  public void setKeyManagerPassword(final String keyManagerPassword) {
+  public synchronized void setKeyManagerPassword(final String keyManagerPassword) {
     this.keyManagerPassword = keyManagerPassword;
+    keyMaterialChanged = true;
   }
 
   @ServiceRef(referenceId = SslConnectionFactoryFactoryConstants.ATTR_KEYSTORE,
-      optional = true, attributePriority = PriorityConstants.PRIORITY_01,
+      optional = true, dynamic = true, attributePriority = PriorityConstants.PRIORITY_01,
       label = "KeyStore (target)",
       description = "Optional service filter expression of KeyStore OSGi service. If not specified,"
           + " the default developer certificate is used.")
-  public void setKeyStore(final KeyStore keyStore) {
+  public synchronized void setKeyStore(final KeyStore keyStore) {
     this.keyStore = keyStore;
+    keyMaterialChanged = true;
   }
 
   @PasswordAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_KEYSTORE_PASSWORD,
       defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_KEYSTORE_PASSWORD,
-      priority = PriorityConstants.PRIORITY_02, label = "KeyStore password",
+      dynamic = true, priority = PriorityConstants.PRIORITY_02, label = "KeyStore password",
       description = "The password for the key store.")
-  public void setKeyStorePassword(final String keyStorePassword) {
+  public synchronized void setKeyStorePassword(final String keyStorePassword) {
     this.keyStorePassword = keyStorePassword;
+    keyMaterialChanged = true;
+  }
+
+  @StringAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_PROVIDER,
+      optional = true, priority = PriorityConstants.PRIORITY_10, label = "Provider",
+      description = "The name of the JSSE provider that creates the SSLContext (e.g. SunJSSE). If "
+          + "not specified, the most preferred provider of the JVM is used.")
+  public void setProvider(final String provider) {
+    this.provider = provider;
   }
 
+  /**
+   * Setter that also updates the property on the shared context factories. The change is applied
+   * on the connections that are opened afterwards.
+   */
+  @BooleanAttribute(
+      attributeId = SslConnectionFactoryFactoryConstants.ATTR_SESSION_CACHING_ENABLED,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_SESSION_CACHING_ENABLED,
+      dynamic = true, priority = PriorityConstants.PRIORITY_11, label = "Session caching",
+      description = "Whether the clients can resume their cached TLS sessions with an "
+          + "abbreviated handshake. If disabled, the session cache holds only one session that "
+          + "expires after one second, so the session cache size and timeout are not used.")
+  public synchronized void setSessionCachingEnabled(final boolean sessionCachingEnabled) {
+    this.sessionCachingEnabled = sessionCachingEnabled;
+    for (CustomSslContextFactory sslContextFactory : sharedSslContextFactories.values()) {
+      sslContextFactory.setSessionCachingEnabled(sessionCachingEnabled);
+    }
+  }
+
+  /**
+   * Setter that also resizes the session cache of the shared context factories.
+   */
+  @IntegerAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_SSL_SESSION_CACHE_SIZE,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_SSL_SESSION_CACHE_SIZE,
+      dynamic = true, priority = PriorityConstants.PRIORITY_12, label = "Session cache size",
+      description = "The maximum number of cached TLS sessions. Zero means no limit, a negative "
+          + "value keeps the default of the JVM.")
+  public synchronized void setSslSessionCacheSize(final int sslSessionCacheSize) {
+    this.sslSessionCacheSize = sslSessionCacheSize;
+    for (CustomSslContextFactory sslContextFactory : sharedSslContextFactories.values()) {
+      sslContextFactory.setSslSessionCacheSize(sslSessionCacheSize);
+    }
+  }
+
+  /**
+   * Setter that also updates the session timeout of the shared context factories.
+   */
+  @IntegerAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_SSL_SESSION_TIMEOUT,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_SSL_SESSION_TIMEOUT,
+      dynamic = true, priority = PriorityConstants.PRIORITY_13, label = "Session timeout",
+      description = "The time in seconds while a cached TLS session can be resumed. Zero means no "
+          + "limit, a negative value keeps the default of the JVM.")
+  public synchronized void setSslSessionTimeout(final int sslSessionTimeout) {
+    this.sslSessionTimeout = sslSessionTimeout;
+    for (CustomSslContextFactory sslContextFactory : sharedSslContextFactories.values()) {
+      sslContextFactory.setSslSessionTimeout(sslSessionTimeout);
+    }
+  }
+
+  @BooleanAttribute(attributeId = SslConnectionFactoryFactoryConstants.ATTR_USE_CIPHER_SUITES_ORDER,
+      defaultValue = SslConnectionFactoryFactoryConstants.DEFAULT_USE_CIPHER_SUITES_ORDER,
+      priority = PriorityConstants.PRIORITY_09, label = "Use cipher suites order",
+      description = "Whether the cipher suite is selected by the order of preference of the "
+          + "server instead of the client. It is always used in front of an ALPN connection "
+          + "factory, so the cipher suites allowed by HTTP/2 are selected.")
+  public void setUseCipherSuitesOrder(final boolean useCipherSuitesOrder) {
+    this.useCipherSuitesOrder = useCipherSuitesOrder;
+  }
+
+  /**
+   * Loads the changed key material with a new context factory for each shared context factory and
+   * swaps it in, so the new handshakes use it. If the new key material cannot be loaded, the
+   * previous one stays in use.
+   */
+  @Update
+  public synchronized void update() {
+    if (!keyMaterialChanged) {
+      return;
+    }
+
+    for (Map.Entry<Boolean, CustomSslContextFactory> entry : sharedSslContextFactories
+        .entrySet()) {
+      try {
+        entry.getValue().swapKeyMaterial(createSslContextFactory(entry.getKey()));
+      } catch (Exception e) {
+        LOG.warn("Could not load the changed key material, the previous one is kept in use", e);
+      }
+    }
+
+    keyMaterialChanged = false;
+  }
 }
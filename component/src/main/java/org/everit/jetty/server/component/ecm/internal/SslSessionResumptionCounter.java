@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.jetty.server.component.ecm.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSession;
+
+import org.everit.jetty.server.component.ecm.SslSessionStatistics;
+
+/**
+ * Counts the completed TLS handshakes. A session is marked with a value when its full handshake
+ * is counted, so a handshake that finds the mark resumed a cached session.
+ */
+public class SslSessionResumptionCounter implements SslSessionStatistics {
+
+  private static final String SESSION_MARK = SslSessionResumptionCounter.class.getName();
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  @Override
+  public long getSessionResumptionHitCount() {
+    return hitCount.get();
+  }
+
+  @Override
+  public long getSessionResumptionMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Counts the handshake that established or resumed the session.
+   *
+   * @param session
+   *          The session of the connection right after its handshake completed.
+   */
+  public void handshakeCompleted(final SSLSession session) {
+    if (session.getValue(SESSION_MARK) != null) {
+      hitCount.incrementAndGet();
+    } else {
+      session.putValue(SESSION_MARK, Boolean.TRUE);
+      missCount.incrementAndGet();
+    }
+  }
+}
@@ -68,6 +68,27 @@ public abstract class AbstractServletContextElementManager<KEY, ELEMENT> {
     return result;
   }
 
+  /**
+   * Checks whether the new keys differ from the previous ones in content or order.
+   *
+   * @param newKeys
+   *          The new key array.
+   * @return true if the element array generated from the new keys would differ from the previous
+   *         one.
+   */
+  public boolean isChanged(final KEY[] newKeys) {
+    if (newKeys.length != previousKeysWithPosition.size()) {
+      return true;
+    }
+    for (int i = 0; i < newKeys.length; i++) {
+      Integer position = previousKeysWithPosition.get(newKeys[i]);
+      if ((position == null) || (position != i)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Updates the previous key array in the manager.
    *